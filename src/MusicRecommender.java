@@ -14,12 +14,18 @@ import utils.data.DBReader;
 import utils.data.FileReader;
 import utils.data.Reader;
 import algos.Algorithm;
+import algos.BPR;
+import algos.ContentBased;
+import algos.ImplicitALS;
 import algos.ItemBasedCollaborativeFiltering;
 import algos.KNN;
+import algos.LightUserFastPath;
 import algos.NaiveBayes;
+import algos.P3Alpha;
 import algos.TopNPopularSongs;
 import algos.UserBasedCollaborativeFiltering;
 import algos.ensembles.Bagging;
+import algos.pipeline.TwoStagePipeline;
 
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.Lists;
@@ -55,12 +61,23 @@ public class MusicRecommender
 		UserBasedCollaborativeFiltering userBasedCollabFiltering = new UserBasedCollaborativeFiltering(recommendationCount);
 		userBasedCollabFiltering.setWeightCoefficient(0.8);
 		userBasedCollabFiltering.setNormalizationCoefficient(8.0);
+		userBasedCollabFiltering.setEarlyTermination(true);
 		
 		Algorithm itemBasedCollabFiltering 	= new ItemBasedCollaborativeFiltering(recommendationCount);
+		Algorithm implicitALS				= new ImplicitALS(recommendationCount);
+		Algorithm bpr						= new BPR(recommendationCount);
+		Algorithm p3Alpha					= new P3Alpha(recommendationCount);
+		Algorithm contentBased				= new ContentBased(recommendationCount);
 		Algorithm baggingWithNaiveBayes 	= new Bagging(Constants.NAIVE_BAYES, recommendationCount);
 		Algorithm baggingWithItemBased		= new Bagging(Constants.ITEM_BASED_COLLABORATIVE_FILTERING, recommendationCount);
 		Algorithm baggingWithUserBased		= new Bagging(Constants.USER_BASED_COLLABORATIVE_FILTERING, recommendationCount);
 		Algorithm baggingWithKNN			= new Bagging(Constants.K_NEAREST_NEIGHBOUR, recommendationCount);
+		Algorithm pipelineWithNaiveBayes	= new TwoStagePipeline(Constants.NAIVE_BAYES, recommendationCount);
+		Algorithm pipelineWithKNN			= new TwoStagePipeline(Constants.K_NEAREST_NEIGHBOUR, recommendationCount);
+		Algorithm pipelineWithUserBased		= new TwoStagePipeline(Constants.USER_BASED_COLLABORATIVE_FILTERING, recommendationCount);
+		Algorithm fastPathWithNaiveBayes	= new LightUserFastPath(Constants.NAIVE_BAYES, recommendationCount);
+		Algorithm fastPathWithKNN			= new LightUserFastPath(Constants.K_NEAREST_NEIGHBOUR, recommendationCount);
+		Algorithm fastPathWithUserBased		= new LightUserFastPath(Constants.USER_BASED_COLLABORATIVE_FILTERING, recommendationCount);
 		
 		Map<String, Algorithm> algosMap = Maps.newHashMap();
 		algosMap.put(Constants.TOP_N_POPULAR, 		overallTopNSongsAlgo);
@@ -68,10 +85,20 @@ public class MusicRecommender
 		algosMap.put(Constants.ITEM_BASED_COLLABORATIVE_FILTERING, itemBasedCollabFiltering);
 		algosMap.put(Constants.K_NEAREST_NEIGHBOUR, kNNAlgo);
 		algosMap.put(Constants.NAIVE_BAYES, 		naiveBayesAlgo);
+		algosMap.put(Constants.IMPLICIT_ALS, 		implicitALS);
+		algosMap.put(Constants.BPR, 				bpr);
+		algosMap.put(Constants.P3_ALPHA, 			p3Alpha);
+		algosMap.put(Constants.CONTENT_BASED, 		contentBased);
 		algosMap.put(Constants.BAGGING_NAIVE_BAYES, baggingWithNaiveBayes);
 		algosMap.put(Constants.BAGGING_ITEM_BASED, 	baggingWithItemBased);
 		algosMap.put(Constants.BAGGING_KNN, 		baggingWithKNN);
 		algosMap.put(Constants.BAGGING_USER_BASED, 	baggingWithUserBased);
+		algosMap.put(Constants.PIPELINE_NAIVE_BAYES, pipelineWithNaiveBayes);
+		algosMap.put(Constants.PIPELINE_KNN, 		pipelineWithKNN);
+		algosMap.put(Constants.PIPELINE_USER_BASED, pipelineWithUserBased);
+		algosMap.put(Constants.FAST_PATH_NAIVE_BAYES, fastPathWithNaiveBayes);
+		algosMap.put(Constants.FAST_PATH_KNN, 		fastPathWithKNN);
+		algosMap.put(Constants.FAST_PATH_USER_BASED, fastPathWithUserBased);
 		
 		return algosMap;
 	}
@@ -84,10 +111,20 @@ public class MusicRecommender
 		algosMap.put("user-based", Constants.USER_BASED_COLLABORATIVE_FILTERING);
 		algosMap.put("item-based", Constants.ITEM_BASED_COLLABORATIVE_FILTERING);
 		algosMap.put("nb", Constants.NAIVE_BAYES);
+		algosMap.put("als", Constants.IMPLICIT_ALS);
+		algosMap.put("bpr", Constants.BPR);
+		algosMap.put("p3", Constants.P3_ALPHA);
+		algosMap.put("content", Constants.CONTENT_BASED);
 		algosMap.put("bag-knn", Constants.BAGGING_KNN);
 		algosMap.put("bag-item-based", Constants.BAGGING_ITEM_BASED);
 		algosMap.put("bag-user-based", Constants.BAGGING_USER_BASED);
 		algosMap.put("bag-nb", Constants.BAGGING_NAIVE_BAYES);
+		algosMap.put("pipe-knn", Constants.PIPELINE_KNN);
+		algosMap.put("pipe-user-based", Constants.PIPELINE_USER_BASED);
+		algosMap.put("pipe-nb", Constants.PIPELINE_NAIVE_BAYES);
+		algosMap.put("fast-knn", Constants.FAST_PATH_KNN);
+		algosMap.put("fast-user-based", Constants.FAST_PATH_USER_BASED);
+		algosMap.put("fast-nb", Constants.FAST_PATH_NAIVE_BAYES);
 		
 		return algosMap;
 	}
@@ -110,7 +147,7 @@ public class MusicRecommender
 			StringBuilder errorMsg = new StringBuilder();
 			errorMsg.append("Please run the program with correct arguments !!").append("\n");
 			errorMsg.append("Usage : MusicRecommender <table name> <num songs to recommend> <num cross-validation folds> <num runs> "
-					+ "<filedata|dbdata> <overall,knn,user-based,item-based,nb,bag-knn,bag-nb,bag-item-based,bag-user-based");
+					+ "<filedata|dbdata> <overall,knn,user-based,item-based,nb,als,bpr,p3,content,bag-knn,bag-nb,bag-item-based,bag-user-based,pipe-knn,pipe-user-based,pipe-nb,fast-knn,fast-user-based,fast-nb");
 			throw new IllegalArgumentException(errorMsg.toString());
 		}
 
@@ -0,0 +1,27 @@
+package algos;
+
+import java.util.Set;
+
+/**
+ * Interface to represent an Algorithm which can bound the time spent recommending songs to every
+ * user : its work for a user is done in priority order, and when the time budget of the user
+ * expires the best top N songs found so far are recommended instead of the exact ones.
+ */
+public interface AnytimeAlgorithm extends Algorithm
+{
+	/**
+	 * Sets the time budget for every user, no budget if zero.
+	 * @param timeBudgetMicros
+	 */
+	public void setTimeBudgetMicros(long timeBudgetMicros);
+	
+	public long getTimeBudgetMicros();
+	
+	/**
+	 * Method to get the users whose recommendations, in the last call to recommend, were cut short
+	 * by the time budget and may differ from the exact ones.
+	 * @return	IDs of the users with inexact recommendations
+	 */
+	public Set<String> getInexactUsers();
+
+}
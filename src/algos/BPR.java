@@ -0,0 +1,380 @@
+package algos;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import models.DataSet;
+import models.Song;
+import models.SongScore;
+
+import org.apache.log4j.Logger;
+
+import utils.AlgoUtils;
+import utils.ParallelUtils;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Class to represent the Bayesian Personalized Ranking algorithm (Rendle et al.), a matrix
+ * factorization trained to rank the songs listened by a user above the songs not listened.
+ *
+ * The model is trained with stochastic gradient descent on triples of a user, a song listened by
+ * the user and a song not listened. Every thread draws its own triples and updates the shared factor
+ * arrays without any lock (Hogwild) : two threads rarely update the same factors at once, and a lost
+ * update only slows down the descent a little. The song not listened can be drawn uniformly or in
+ * proportion to its popularity, by picking the song of a random train interaction, so that the
+ * popular songs which the user did not listen to are the ones pushed down. Both draws take constant
+ * time.
+ *
+ * Test users are not part of the model : their factors are trained on their visible songs with the
+ * song factors fixed, and their recommendations are the songs with the highest scores.
+ *
+ * @author excelsior
+ *
+ */
+public class BPR implements Algorithm
+{
+	private static Logger LOG = Logger.getLogger(BPR.class);
+	
+	// Number of songs to recommend for a user
+	private int mSongsCount = 0;
+	
+	private DataSet mTrainDataset = null;
+	
+	private static final long SEED = 0xB9EL;
+	
+	// Number of test users recommended by a task at a time
+	private static final int CHUNK_SIZE = 256;
+	
+	// Maximum number of songs drawn to find a song not listened by the user
+	private static final int MAX_NEGATIVE_DRAWS = 16;
+	
+	private int numFactors = 32;
+	private double learningRate = 0.02;
+	private double regularization = 0.01;
+	private int numEpochs = 100;
+	private int numFoldInEpochs = 100;
+	
+	// Fraction of the songs not listened which are drawn in proportion to their popularity, the others
+	// being drawn uniformly
+	private double popularNegativesRatio = 0.0;
+	private int numThreads = Runtime.getRuntime().availableProcessors();
+	
+	// Train songs, indexed by their row in the song factors
+	private String[] mSongIds = null;
+	private Map<String, Integer> mSongIndexMap = null;
+	
+	// Song of every train interaction, to draw songs in proportion to their popularity
+	private int[] mInteractionSongs = null;
+	
+	// Factors of the songs, one row of numFactors after the other, and bias of the songs
+	private double[] mSongFactors = null;
+	private double[] mSongBiases = null;
+	
+	public BPR(int numSongsToRecommend)
+	{
+		this.mSongsCount = numSongsToRecommend;
+	}
+	
+	public int getNumFactors()
+	{
+		return numFactors;
+	}
+	
+	public void setNumFactors(int numFactors)
+	{
+		this.numFactors = numFactors;
+	}
+	
+	public double getLearningRate()
+	{
+		return learningRate;
+	}
+	
+	public void setLearningRate(double learningRate)
+	{
+		this.learningRate = learningRate;
+	}
+	
+	public double getRegularization()
+	{
+		return regularization;
+	}
+	
+	public void setRegularization(double regularization)
+	{
+		this.regularization = regularization;
+	}
+	
+	public int getNumEpochs()
+	{
+		return numEpochs;
+	}
+	
+	public void setNumEpochs(int numEpochs)
+	{
+		this.numEpochs = numEpochs;
+	}
+	
+	public int getNumFoldInEpochs()
+	{
+		return numFoldInEpochs;
+	}
+	
+	public void setNumFoldInEpochs(int numFoldInEpochs)
+	{
+		this.numFoldInEpochs = numFoldInEpochs;
+	}
+	
+	public double getPopularNegativesRatio()
+	{
+		return popularNegativesRatio;
+	}
+	
+	public void setPopularNegativesRatio(double popularNegativesRatio)
+	{
+		this.popularNegativesRatio = popularNegativesRatio;
+	}
+	
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+	
+	public void setNumThreads(int numThreads)
+	{
+		this.numThreads = numThreads;
+	}
+	
+	/**
+	 * Trains the factors with as many triples per epoch as there are train interactions, drawn and
+	 * applied concurrently by all the threads.
+	 */
+	public void generateModel(DataSet trainDataset)
+	{
+		this.mTrainDataset = trainDataset;
+		
+		mSongIds = trainDataset.getSongMap().keySet().toArray(new String[trainDataset.getSongMap().size()]);
+		mSongIndexMap = Maps.newHashMap();
+		for(int i = 0; i < mSongIds.length; i++) {
+			mSongIndexMap.put(mSongIds[i], i);
+		}
+		
+		// Sorted songs of every user, and the user and song of every interaction
+		Map<String, Map<String, Integer>> trainListeningHistory = trainDataset.getUserListeningHistory();
+		int numUsers = trainListeningHistory.size();
+		final int[][] userSongs = new int[numUsers][];
+		final int[] interactionUsers = new int[trainDataset.getDataSetSize()];
+		mInteractionSongs = new int[interactionUsers.length];
+		int user = 0;
+		int interaction = 0;
+		for(Map<String, Integer> history : trainListeningHistory.values()) {
+			userSongs[user] = getSongIndices(history);
+			for(int song : userSongs[user]) {
+				interactionUsers[interaction] = user;
+				mInteractionSongs[interaction] = song;
+				++interaction;
+			}
+			++user;
+		}
+		
+		Random random = new Random(SEED);
+		final double[] userFactors = getRandomFactors(numUsers, random);
+		mSongFactors = getRandomFactors(mSongIds.length, random);
+		mSongBiases = new double[mSongIds.length];
+		
+		// One thread pool for all the epochs, instead of a new pool created and shut down every epoch
+		final int stepsPerThread = interactionUsers.length/numThreads + 1;
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		Stopwatch trainTimer = Stopwatch.createStarted();
+		try {
+			for(int epoch = 0; epoch < numEpochs; epoch++) {
+				List<Callable<Void>> threadTasks = Lists.newArrayList();
+				for(int thread = 0; thread < numThreads; thread++) {
+					final Random threadRandom = new Random(random.nextLong());
+					threadTasks.add(new Callable<Void>() {
+						public Void call()
+						{
+							for(int step = 0; step < stepsPerThread; step++) {
+								int interaction = threadRandom.nextInt(interactionUsers.length);
+								int user = interactionUsers[interaction];
+								int negativeSong = drawNegativeSong(userSongs[user], threadRandom);
+								if(negativeSong >= 0) {
+									updateFactors(userFactors, user*numFactors, mInteractionSongs[interaction],
+											negativeSong, true);
+								}
+							}
+							return null;
+						}
+					});
+				}
+				ParallelUtils.runConcurrently(executor, threadTasks);
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		
+		double trainSeconds = trainTimer.elapsed(TimeUnit.MILLISECONDS)/1000.0;
+		LOG.info("Trained BPR for " + numEpochs + " epochs of " + interactionUsers.length + " triples on " +
+				numThreads + " threads in " + trainSeconds + " seconds (" + numEpochs/trainSeconds +
+				" epochs per second).");
+	}
+	
+	private double[] getRandomFactors(int numRows, Random random)
+	{
+		double[] factors = new double[numRows*numFactors];
+		for(int i = 0; i < factors.length; i++) {
+			factors[i] = 0.01*random.nextGaussian();
+		}
+		return factors;
+	}
+	
+	/**
+	 * Gets the sorted indices of the songs of a listening history which are train songs.
+	 */
+	private int[] getSongIndices(Map<String, Integer> history)
+	{
+		int[] songs = new int[history.size()];
+		int numSongs = 0;
+		for(String songId : history.keySet()) {
+			Integer song = mSongIndexMap.get(songId);
+			if(song != null) {
+				songs[numSongs++] = song;
+			}
+		}
+		songs = Arrays.copyOf(songs, numSongs);
+		Arrays.sort(songs);
+		return songs;
+	}
+	
+	/**
+	 * Draws a song not listened by the user, in proportion to its popularity or uniformly.
+	 *
+	 * @param userSongs	Sorted songs listened by the user
+	 * @return	Song drawn, or -1 if every song drawn was listened by the user
+	 */
+	private int drawNegativeSong(int[] userSongs, Random random)
+	{
+		for(int draw = 0; draw < MAX_NEGATIVE_DRAWS; draw++) {
+			int song = (random.nextDouble() < popularNegativesRatio) ? 
+					mInteractionSongs[random.nextInt(mInteractionSongs.length)] : random.nextInt(mSongIds.length);
+			if(Arrays.binarySearch(userSongs, song) < 0) {
+				return song;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Takes a gradient step to rank the positive song above the negative song for a user.
+	 *
+	 * @param userFactors		Array holding the factors of the user
+	 * @param userOffset		Offset of the factors of the user in the array
+	 * @param updateSongs		Whether the song factors are also updated, or only the user factors
+	 */
+	private void updateFactors(double[] userFactors, int userOffset, int positiveSong, int negativeSong,
+			boolean updateSongs)
+	{
+		int positiveOffset = positiveSong*numFactors;
+		int negativeOffset = negativeSong*numFactors;
+		
+		double difference = mSongBiases[positiveSong] - mSongBiases[negativeSong];
+		for(int f = 0; f < numFactors; f++) {
+			difference += userFactors[userOffset + f]*(mSongFactors[positiveOffset + f] - mSongFactors[negativeOffset + f]);
+		}
+		
+		// Gradient of the log of the probability that the positive song is ranked first
+		double gradient = 1.0/(1.0 + Math.exp(difference));
+		
+		for(int f = 0; f < numFactors; f++) {
+			double userFactor = userFactors[userOffset + f];
+			double positiveFactor = mSongFactors[positiveOffset + f];
+			double negativeFactor = mSongFactors[negativeOffset + f];
+			userFactors[userOffset + f] += learningRate*(gradient*(positiveFactor - negativeFactor) - regularization*userFactor);
+			if(updateSongs) {
+				mSongFactors[positiveOffset + f] += learningRate*(gradient*userFactor - regularization*positiveFactor);
+				mSongFactors[negativeOffset + f] += learningRate*(-gradient*userFactor - regularization*negativeFactor);
+			}
+		}
+		if(updateSongs) {
+			mSongBiases[positiveSong] += learningRate*(gradient - regularization*mSongBiases[positiveSong]);
+			mSongBiases[negativeSong] += learningRate*(-gradient - regularization*mSongBiases[negativeSong]);
+		}
+	}
+	
+	public Map<String, List<Song>> recommend(final DataSet testVisibleDataset)
+	{
+		final List<String> testVisibleUsers = testVisibleDataset.getListOfUsers();
+		final List<Song> popularSongs = mTrainDataset.getOverallNPopularSongs(mSongsCount);
+		final List<List<Song>> recommendations = Lists.newArrayList();
+		for(int i = 0; i < testVisibleUsers.size(); i++) {
+			recommendations.add(null);
+		}
+		
+		ParallelUtils.runInChunks(testVisibleUsers.size(), CHUNK_SIZE, numThreads, new ParallelUtils.RangeTask() {
+			public void run(int start, int end)
+			{
+				for(int user = start; user < end; user++) {
+					String userId = testVisibleUsers.get(user);
+					List<Song> userRecommendations = getSongRecommendations(userId,
+							testVisibleDataset.getUserListeningHistory().get(userId));
+					recommendations.set(user, AlgoUtils.checkAndUpdateTopNSongs(userRecommendations, mSongsCount,
+							popularSongs));
+				}
+			}
+		});
+		
+		Map<String, List<Song>> songRecommendationsForUserMap = Maps.newHashMap();
+		for(int user = 0; user < testVisibleUsers.size(); user++) {
+			songRecommendationsForUserMap.put(testVisibleUsers.get(user), recommendations.get(user));
+		}
+		return songRecommendationsForUserMap;
+	}
+	
+	/**
+	 * Trains the factors of a test user on the visible songs, and gets the top N songs not listened
+	 * yet by their score for the user.
+	 */
+	private List<Song> getSongRecommendations(String userId, Map<String, Integer> history)
+	{
+		int[] songs = getSongIndices(history);
+		if(songs.length == 0) {
+			return Lists.newArrayList();
+		}
+		
+		Random random = new Random(SEED ^ userId.hashCode());
+		double[] userFactors = new double[numFactors];
+		for(int step = 0; step < numFoldInEpochs*songs.length; step++) {
+			int negativeSong = drawNegativeSong(songs, random);
+			if(negativeSong >= 0) {
+				updateFactors(userFactors, 0, songs[random.nextInt(songs.length)], negativeSong, false);
+			}
+		}
+		
+		PriorityQueue<SongScore> topNSongs = new PriorityQueue<SongScore>(mSongsCount);
+		for(int song = 0; song < mSongIds.length; song++) {
+			if(Arrays.binarySearch(songs, song) >= 0) {
+				continue;
+			}
+			
+			double score = mSongBiases[song];
+			int offset = song*numFactors;
+			for(int f = 0; f < numFactors; f++) {
+				score += userFactors[f]*mSongFactors[offset + f];
+			}
+			AlgoUtils.updateTopNSongs(mSongsCount, topNSongs, mSongIds[song], score);
+		}
+		
+		return AlgoUtils.getTopNSongs(topNSongs, mTrainDataset);
+	}
+}
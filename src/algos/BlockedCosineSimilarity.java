@@ -0,0 +1,219 @@
+package algos;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import utils.ParallelUtils;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Computes the K most similar train users of a batch of test users as a blocked sparse matrix
+ * product between the test feature matrix and the transposed train feature matrix.
+ * 
+ * The train features are transposed once into song postings (for every song, the train users who
+ * listened to it along with their playcounts, in increasing order of train users). The test users
+ * are split into blocks which are scored in parallel, one block per task. Within a task, the train
+ * users are also walked one block at a time : the dot products of every test user with the train
+ * users of the current block are accumulated in a dense array the size of the block, so that the
+ * array stays in the CPU cache, and only the top K of each test user are kept across blocks. The
+ * full test x train product is never materialized, and train users who share no song with a test
+ * user are never touched.
+ * 
+ * @author excelsior
+ *
+ */
+class BlockedCosineSimilarity
+{
+	private FeatureVector[] trainFeatures;
+	
+	// Song postings : train users who listened to each song, and their playcounts
+	private int[][] songUsers;
+	private int[][] songPlaycounts;
+	
+	// Number of test users per task, and of train users per dense block of dot products
+	private static final int TEST_BLOCK_SIZE = 64;
+	private static final int TRAIN_BLOCK_SIZE = 4096;
+	
+	public BlockedCosineSimilarity(FeatureVector[] trainFeatures, int numSongs)
+	{
+		this.trainFeatures = trainFeatures;
+		
+		int[] numSongUsers = new int[numSongs];
+		for(FeatureVector trainFeature : trainFeatures) {
+			for(int song : trainFeature.songs) {
+				++numSongUsers[song];
+			}
+		}
+		
+		songUsers = new int[numSongs][];
+		songPlaycounts = new int[numSongs][];
+		for(int song = 0; song < numSongs; song++) {
+			songUsers[song] = new int[numSongUsers[song]];
+			songPlaycounts[song] = new int[numSongUsers[song]];
+			numSongUsers[song] = 0;
+		}
+		for(int user = 0; user < trainFeatures.length; user++) {
+			FeatureVector trainFeature = trainFeatures[user];
+			for(int i = 0; i < trainFeature.songs.length; i++) {
+				int song = trainFeature.songs[i];
+				songUsers[song][numSongUsers[song]] = user;
+				songPlaycounts[song][numSongUsers[song]] = trainFeature.playcounts[i];
+				++numSongUsers[song];
+			}
+		}
+	}
+	
+	/**
+	 * Gets the K train users with the highest (non-zero) cosine similarity for every test user.
+	 * 
+	 * @param testFeatures	Feature vectors of the test users, with the same song indices as the train
+	 * @param k				Number of neighbours per test user
+	 * @param numThreads	Number of threads scoring blocks of test users
+	 * @return	Top K neighbours of every test user, in the order of the test features
+	 */
+	public Neighbours[] getTopKNeighbours(final FeatureVector[] testFeatures, final int k, int numThreads)
+	{
+		final Neighbours[] neighbours = new Neighbours[testFeatures.length];
+		
+		List<Callable<Void>> blockTasks = Lists.newArrayList();
+		for(int blockStart = 0; blockStart < testFeatures.length; blockStart += TEST_BLOCK_SIZE) {
+			final int start = blockStart;
+			final int end = Math.min(blockStart + TEST_BLOCK_SIZE, testFeatures.length);
+			blockTasks.add(new Callable<Void>() {
+				public Void call()
+				{
+					scoreTestBlock(testFeatures, start, end, k, neighbours);
+					return null;
+				}
+			});
+		}
+		ParallelUtils.runConcurrently(blockTasks, numThreads);
+		
+		return neighbours;
+	}
+	
+	/**
+	 * Scores the test users [start, end) against all the train users, one train block at a time.
+	 */
+	private void scoreTestBlock(FeatureVector[] testFeatures, int start, int end, int k, Neighbours[] neighbours)
+	{
+		int blockSize = Math.min(TRAIN_BLOCK_SIZE, Math.max(trainFeatures.length, 1));
+		long[] dotProducts = new long[blockSize];
+		int[] touchedUsers = new int[blockSize];
+		
+		// Position reached in the postings of every song of every test user of the block
+		int[][] postingCursors = new int[end - start][];
+		for(int testUser = start; testUser < end; testUser++) {
+			neighbours[testUser] = new Neighbours(k);
+			postingCursors[testUser - start] = new int[testFeatures[testUser].songs.length];
+		}
+		
+		for(int blockStart = 0; blockStart < trainFeatures.length; blockStart += blockSize) {
+			int blockEnd = Math.min(blockStart + blockSize, trainFeatures.length);
+			
+			for(int testUser = start; testUser < end; testUser++) {
+				FeatureVector testFeature = testFeatures[testUser];
+				int[] cursors = postingCursors[testUser - start];
+				int numTouchedUsers = 0;
+				
+				for(int i = 0; i < testFeature.songs.length; i++) {
+					int[] users = songUsers[testFeature.songs[i]];
+					int[] playcounts = songPlaycounts[testFeature.songs[i]];
+					int testPlaycount = testFeature.playcounts[i];
+					
+					int cursor = cursors[i];
+					while(cursor < users.length && users[cursor] < blockEnd) {
+						int offset = users[cursor] - blockStart;
+						if(dotProducts[offset] == 0) {
+							touchedUsers[numTouchedUsers++] = offset;
+						}
+						dotProducts[offset] += (long)testPlaycount*playcounts[cursor];
+						++cursor;
+					}
+					cursors[i] = cursor;
+				}
+				
+				for(int i = 0; i < numTouchedUsers; i++) {
+					int offset = touchedUsers[i];
+					int trainUser = blockStart + offset;
+					double simScore = dotProducts[offset]/(testFeature.magnitude*trainFeatures[trainUser].magnitude);
+					neighbours[testUser].offer(trainUser, simScore);
+					dotProducts[offset] = 0;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Bounded min-heap holding the K most similar train users of a test user.
+	 */
+	static class Neighbours
+	{
+		int[] users;
+		double[] simScores;
+		int size = 0;
+		
+		public Neighbours(int k)
+		{
+			users = new int[k];
+			simScores = new double[k];
+		}
+		
+		public void offer(int user, double simScore)
+		{
+			if(size < users.length) {
+				users[size] = user;
+				simScores[size] = simScore;
+				siftUp(size++);
+			}
+			else if(size > 0 && Double.compare(simScores[0], simScore) < 0) {
+				users[0] = user;
+				simScores[0] = simScore;
+				siftDown(0);
+			}
+		}
+		
+		private void siftUp(int i)
+		{
+			while(i > 0) {
+				int parent = (i - 1)/2;
+				if(Double.compare(simScores[parent], simScores[i]) <= 0) {
+					break;
+				}
+				swap(i, parent);
+				i = parent;
+			}
+		}
+		
+		private void siftDown(int i)
+		{
+			while(true) {
+				int smallest = i;
+				int left = 2*i + 1;
+				int right = left + 1;
+				if(left < size && Double.compare(simScores[left], simScores[smallest]) < 0) {
+					smallest = left;
+				}
+				if(right < size && Double.compare(simScores[right], simScores[smallest]) < 0) {
+					smallest = right;
+				}
+				if(smallest == i) {
+					break;
+				}
+				swap(i, smallest);
+				i = smallest;
+			}
+		}
+		
+		private void swap(int i, int j)
+		{
+			int user = users[i];
+			users[i] = users[j];
+			users[j] = user;
+			double simScore = simScores[i];
+			simScores[i] = simScores[j];
+			simScores[j] = simScore;
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package algos;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import models.SongScore;
+
+/**
+ * Algorithm which can also score only some candidate songs for a user, e.g. the songs found by
+ * cheaper algorithms, so that the cost of recommending depends on the number of candidates instead
+ * of the number of songs.
+ *
+ * @author excelsior
+ *
+ */
+public interface CandidateScorer extends Algorithm
+{
+	/**
+	 * Gets the top N songs for a user among the candidate songs. The candidates which are not train
+	 * songs, or which the user has listened already, are never returned.
+	 *
+	 * @param history		Listening history of the user
+	 * @param candidates	Song IDs of the candidate songs
+	 * @return	Top N candidate songs along with their scores
+	 */
+	public PriorityQueue<SongScore> getTopCandidates(Map<String, Integer> history, Collection<String> candidates,
+			int numSongsToRecommend);
+}
@@ -0,0 +1,277 @@
+package algos;
+
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import models.Constants;
+import models.DataSet;
+import models.Song;
+import models.SongDetail;
+import models.SongScore;
+import models.Track;
+
+import org.apache.log4j.Logger;
+
+import utils.AlgoUtils;
+import utils.ParallelUtils;
+import utils.ScoreAccumulator;
+import utils.data.ContentReader;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Class to represent a content-based recommender, which recommends the songs whose tags and lyrics
+ * are the most similar to the ones of the songs listened by the user.
+ *
+ * Every song with some content is a document of a TF-IDF inverted index, with the tags of its tracks
+ * and the words of its lyrics as terms. The query of a user is the sum of the vectors of its songs,
+ * cut to its terms of highest weights, and the top songs for it are retrieved from the index with
+ * MaxScore pruning. As the index covers all the songs with some content, and not only the train songs,
+ * it recommends the new songs that no collaborative filtering algorithm can reach.
+ *
+ * The content is read once, and the index built once, for all the folds of the cross-validation.
+ *
+ * @author excelsior
+ *
+ */
+public class ContentBased implements Algorithm
+{
+	private static Logger LOG = Logger.getLogger(ContentBased.class);
+	
+	// Number of songs to recommend for a user
+	private int mSongsCount = 0;
+	
+	private DataSet mTrainDataset = null;
+	
+	// Prefix of the terms which are tags, so that they do not mix with the words of the lyrics
+	private static final String TAG_PREFIX = "tag:";
+	
+	// Number of test users recommended by a task at a time
+	private static final int CHUNK_SIZE = 256;
+	
+	private String contentName = Constants.CONTENT_DATASET;
+	private int maxQueryTerms = 16;
+	private boolean pruning = true;
+	private int numThreads = Runtime.getRuntime().availableProcessors();
+	
+	// Content of the songs and tracks
+	private Map<String, SongDetail> mSongDetailMap = null;
+	private Map<String, Track> mTrackMap = null;
+	
+	// Index over the songs with some content, and the song ID of every document of it
+	private ContentIndex mIndex = null;
+	private String[] mSongIds = null;
+	private Map<String, Integer> mSongIndexMap = null;
+	
+	public ContentBased(int numSongsToRecommend)
+	{
+		this.mSongsCount = numSongsToRecommend;
+	}
+	
+	public String getContentName()
+	{
+		return contentName;
+	}
+	
+	/**
+	 * Sets the name of the content files read, see {@link ContentReader}.
+	 */
+	public void setContentName(String contentName)
+	{
+		this.contentName = contentName;
+		this.mSongDetailMap = null;
+		this.mIndex = null;
+	}
+	
+	/**
+	 * Sets the content of the songs and tracks directly, instead of reading it from the content files.
+	 */
+	public void setContent(Map<String, SongDetail> songDetailMap, Map<String, Track> trackMap)
+	{
+		this.mSongDetailMap = songDetailMap;
+		this.mTrackMap = trackMap;
+		this.mIndex = null;
+	}
+	
+	public int getMaxQueryTerms()
+	{
+		return maxQueryTerms;
+	}
+	
+	public void setMaxQueryTerms(int maxQueryTerms)
+	{
+		this.maxQueryTerms = maxQueryTerms;
+	}
+	
+	public boolean isPruning()
+	{
+		return pruning;
+	}
+	
+	/**
+	 * Sets whether the top songs are retrieved with MaxScore pruning, or by scoring every song sharing a
+	 * term with the query. Both give the same songs.
+	 */
+	public void setPruning(boolean pruning)
+	{
+		this.pruning = pruning;
+	}
+	
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+	
+	public void setNumThreads(int numThreads)
+	{
+		this.numThreads = numThreads;
+	}
+	
+	/**
+	 * Reads the content and builds the index over it, the first time only.
+	 */
+	public void generateModel(DataSet trainDataset)
+	{
+		this.mTrainDataset = trainDataset;
+		if(mIndex != null) {
+			return;
+		}
+		
+		if(mSongDetailMap == null) {
+			ContentReader reader = new ContentReader(contentName);
+			mTrackMap = reader.createTracks();
+			mSongDetailMap = reader.createSongDetails();
+		}
+		
+		List<String> songIds = Lists.newArrayList();
+		List<Map<String, Integer>> documents = Lists.newArrayList();
+		for(SongDetail songDetail : mSongDetailMap.values()) {
+			Map<String, Integer> document = getSongTerms(songDetail);
+			if(!document.isEmpty()) {
+				songIds.add(songDetail.getSongID());
+				documents.add(document);
+			}
+		}
+		
+		mIndex = new ContentIndex(documents);
+		mSongIds = songIds.toArray(new String[songIds.size()]);
+		mSongIndexMap = Maps.newHashMap();
+		for(int i = 0; i < mSongIds.length; i++) {
+			mSongIndexMap.put(mSongIds[i], i);
+		}
+		
+		LOG.info("Indexed " + mIndex.getNumDocuments() + " songs with " + mIndex.getNumTerms() + " terms.");
+		if(mIndex.getNumDocuments() == 0) {
+			LOG.warn("No song content found, only popular songs will be recommended.");
+		}
+	}
+	
+	/**
+	 * Gets the frequency of every term of a song : the tags of its tracks, counted once per track,
+	 * and the words of its lyrics.
+	 */
+	private Map<String, Integer> getSongTerms(SongDetail songDetail)
+	{
+		Map<String, Integer> terms = Maps.newHashMap();
+		if(songDetail.mLyricsMap != null) {
+			terms.putAll(songDetail.mLyricsMap);
+		}
+		
+		if(songDetail.mTrackIDList != null && mTrackMap != null) {
+			for(String trackId : songDetail.mTrackIDList) {
+				Track track = mTrackMap.get(trackId);
+				if(track == null || track.mTagNames == null) {
+					continue;
+				}
+				for(String tag : track.mTagNames) {
+					String term = TAG_PREFIX + tag;
+					Integer count = terms.get(term);
+					terms.put(term, (count == null) ? 1 : count + 1);
+				}
+			}
+		}
+		
+		return terms;
+	}
+	
+	public Map<String, List<Song>> recommend(final DataSet testVisibleDataset)
+	{
+		final List<String> testVisibleUsers = testVisibleDataset.getListOfUsers();
+		final List<Song> popularSongs = mTrainDataset.getOverallNPopularSongs(mSongsCount);
+		final List<List<Song>> recommendations = Lists.newArrayList();
+		for(int i = 0; i < testVisibleUsers.size(); i++) {
+			recommendations.add(null);
+		}
+		
+		ParallelUtils.runInChunks(testVisibleUsers.size(), CHUNK_SIZE, numThreads, new ParallelUtils.RangeTask() {
+			public void run(int start, int end)
+			{
+				ScoreAccumulator termScores = new ScoreAccumulator(mIndex.getNumTerms());
+				ScoreAccumulator songScores = new ScoreAccumulator(mIndex.getNumDocuments());
+				boolean[] isExcluded = new boolean[mIndex.getNumDocuments()];
+				for(int user = start; user < end; user++) {
+					String userId = testVisibleUsers.get(user);
+					List<Song> userRecommendations = getSongRecommendations(
+							testVisibleDataset.getUserListeningHistory().get(userId), termScores, songScores,
+							isExcluded);
+					recommendations.set(user, AlgoUtils.checkAndUpdateTopNSongs(userRecommendations, mSongsCount,
+							popularSongs));
+				}
+			}
+		});
+		
+		Map<String, List<Song>> songRecommendationsForUserMap = Maps.newHashMap();
+		for(int user = 0; user < testVisibleUsers.size(); user++) {
+			songRecommendationsForUserMap.put(testVisibleUsers.get(user), recommendations.get(user));
+		}
+		return songRecommendationsForUserMap;
+	}
+	
+	/**
+	 * Gets the top N songs for the query of the user's songs, other than the songs listened already.
+	 *
+	 * @param termScores	Scratch accumulator of the terms
+	 * @param songScores	Scratch accumulator of the songs, when not pruning
+	 * @param isExcluded	Scratch flags of the songs, all false
+	 */
+	private List<Song> getSongRecommendations(Map<String, Integer> history, ScoreAccumulator termScores,
+			ScoreAccumulator songScores, boolean[] isExcluded)
+	{
+		List<Integer> userSongs = Lists.newArrayList();
+		for(String songId : history.keySet()) {
+			Integer song = mSongIndexMap.get(songId);
+			if(song != null) {
+				userSongs.add(song);
+			}
+		}
+		if(userSongs.isEmpty()) {
+			return Lists.newArrayList();
+		}
+		
+		ContentIndex.Query query = mIndex.getQuery(userSongs, maxQueryTerms, termScores);
+		for(int song : userSongs) {
+			isExcluded[song] = true;
+		}
+		PriorityQueue<SongScore> topNSongScores = null;
+		if(isPruning()) {
+			topNSongScores = mIndex.getTopDocuments(query, mSongsCount, isExcluded, mSongIds);
+		}
+		else {
+			topNSongScores = mIndex.getTopDocumentsExhaustively(query, mSongsCount, isExcluded, mSongIds, songScores);
+		}
+		for(int song : userSongs) {
+			isExcluded[song] = false;
+		}
+		
+		// The songs outside of the train dataset are only known from their content
+		List<Song> topNSongs = Lists.newArrayList();
+		Map<String, Song> trainSongMap = mTrainDataset.getSongMap();
+		for(SongScore songScore : topNSongScores) {
+			Song song = trainSongMap.get(songScore.getSong());
+			topNSongs.add((song != null) ? song : mSongDetailMap.get(songScore.getSong()));
+		}
+		return topNSongs;
+	}
+}
@@ -0,0 +1,326 @@
+package algos;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import models.SongScore;
+import utils.AlgoUtils;
+import utils.ScoreAccumulator;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Inverted index over the TF-IDF vectors of the content of songs, e.g. their tags and the words of
+ * their lyrics, to retrieve the songs most similar to a query vector.
+ *
+ * The weight of a term in a document is (1 + log(tf)) * log(N / df), and the vector of every
+ * document is normalized so that the score of a document is the cosine between the query and the
+ * document. The posting list of every term keeps the documents in increasing order along with the
+ * weight of the term in them, and the maximum of those weights.
+ *
+ * The top documents are retrieved with the MaxScore algorithm, which suits the long queries built
+ * from the songs of a user : the query terms are sorted by the upper bound of their score, i.e. the
+ * query weight times the maximum weight of the term. Once the current top N documents are known, the
+ * terms of lowest upper bounds which cannot get a document in by themselves are not traversed any
+ * more : only the documents of the other terms are scored, and the posting lists of those terms are
+ * only searched for them, and only as long as the document may still get in. These terms are often
+ * the most common ones, with the longest posting lists. The result is the same as scoring every
+ * document containing a query term, which is kept for comparison.
+ *
+ * @author excelsior
+ *
+ */
+class ContentIndex
+{
+	// Current document of a posting list which has been fully traversed
+	private static final int NO_MORE_DOCUMENTS = Integer.MAX_VALUE;
+	
+	private int numDocuments;
+	private Map<String, Integer> termIndexMap;
+	
+	// Document vectors, as their terms and weights
+	private int[][] documentTerms;
+	private float[][] documentWeights;
+	
+	// Posting list of every term, and maximum weight of the term in them
+	private int[][] postingDocuments;
+	private float[][] postingWeights;
+	private float[] maxTermWeights;
+	
+	/**
+	 * Query vector, as the query terms and their weights.
+	 */
+	static class Query
+	{
+		int[] terms;
+		double[] weights;
+		int numTerms;
+	}
+	
+	/**
+	 * @param documents	Frequency of every term in every document
+	 */
+	public ContentIndex(List<Map<String, Integer>> documents)
+	{
+		numDocuments = documents.size();
+		termIndexMap = Maps.newHashMap();
+		int[] documentFrequencies = new int[16];
+		for(Map<String, Integer> document : documents) {
+			for(String term : document.keySet()) {
+				Integer termIndex = termIndexMap.get(term);
+				if(termIndex == null) {
+					termIndex = termIndexMap.size();
+					termIndexMap.put(term, termIndex);
+					if(termIndex == documentFrequencies.length) {
+						documentFrequencies = Arrays.copyOf(documentFrequencies, 2*termIndex);
+					}
+				}
+				++documentFrequencies[termIndex];
+			}
+		}
+		
+		int numTerms = termIndexMap.size();
+		documentTerms = new int[numDocuments][];
+		documentWeights = new float[numDocuments][];
+		for(int doc = 0; doc < numDocuments; doc++) {
+			Map<String, Integer> document = documents.get(doc);
+			documentTerms[doc] = new int[document.size()];
+			documentWeights[doc] = new float[document.size()];
+			
+			double[] weights = new double[document.size()];
+			double norm = 0.0;
+			int i = 0;
+			for(Map.Entry<String, Integer> termFrequency : document.entrySet()) {
+				int term = termIndexMap.get(termFrequency.getKey());
+				documentTerms[doc][i] = term;
+				weights[i] = (1.0 + Math.log(termFrequency.getValue())) *
+						Math.log(numDocuments/(double)documentFrequencies[term]);
+				norm += weights[i]*weights[i];
+				++i;
+			}
+			norm = Math.sqrt(norm);
+			for(i = 0; i < weights.length; i++) {
+				documentWeights[doc][i] = (norm > 0.0) ? (float)(weights[i]/norm) : 0.0f;
+			}
+		}
+		
+		postingDocuments = new int[numTerms][];
+		postingWeights = new float[numTerms][];
+		maxTermWeights = new float[numTerms];
+		for(int term = 0; term < numTerms; term++) {
+			postingDocuments[term] = new int[documentFrequencies[term]];
+			postingWeights[term] = new float[documentFrequencies[term]];
+		}
+		int[] postingSizes = new int[numTerms];
+		for(int doc = 0; doc < numDocuments; doc++) {
+			for(int i = 0; i < documentTerms[doc].length; i++) {
+				int term = documentTerms[doc][i];
+				float weight = documentWeights[doc][i];
+				postingDocuments[term][postingSizes[term]] = doc;
+				postingWeights[term][postingSizes[term]] = weight;
+				++postingSizes[term];
+				maxTermWeights[term] = Math.max(maxTermWeights[term], weight);
+			}
+		}
+	}
+	
+	public int getNumDocuments()
+	{
+		return numDocuments;
+	}
+	
+	public int getNumTerms()
+	{
+		return termIndexMap.size();
+	}
+	
+	/**
+	 * Builds a query as the sum of the vectors of some documents, e.g. the songs listened by a user,
+	 * keeping only its terms of highest weights so that the query stays fast to answer.
+	 *
+	 * @param documents		Documents of the query
+	 * @param maxQueryTerms	Maximum number of terms in the query
+	 * @param termScores	Scratch accumulator of the terms
+	 */
+	public Query getQuery(List<Integer> documents, int maxQueryTerms, ScoreAccumulator termScores)
+	{
+		for(int doc : documents) {
+			for(int i = 0; i < documentTerms[doc].length; i++) {
+				termScores.add(documentTerms[doc][i], documentWeights[doc][i]);
+			}
+		}
+		
+		int numTouchedTerms = termScores.getNumTouchedSongs();
+		double cutoffWeight = 0.0;
+		if(numTouchedTerms > maxQueryTerms) {
+			double[] weights = new double[numTouchedTerms];
+			for(int i = 0; i < numTouchedTerms; i++) {
+				weights[i] = termScores.getScore(termScores.getTouchedSong(i));
+			}
+			Arrays.sort(weights);
+			cutoffWeight = weights[numTouchedTerms - maxQueryTerms];
+		}
+		
+		Query query = new Query();
+		query.terms = new int[Math.min(numTouchedTerms, maxQueryTerms)];
+		query.weights = new double[query.terms.length];
+		for(int i = 0; i < numTouchedTerms && query.numTerms < query.terms.length; i++) {
+			int term = termScores.getTouchedSong(i);
+			double weight = termScores.getScore(term);
+			if(weight > 0.0 && weight >= cutoffWeight) {
+				query.terms[query.numTerms] = term;
+				query.weights[query.numTerms] = weight;
+				++query.numTerms;
+			}
+		}
+		termScores.reset();
+		
+		return query;
+	}
+	
+	/**
+	 * Gets the top N documents for a query, pruning with MaxScore the documents which cannot get in.
+	 *
+	 * @param isExcluded	Documents never returned, e.g. the songs already listened by the user
+	 * @param documentIds	ID of every document, used in the returned scores
+	 */
+	public PriorityQueue<SongScore> getTopDocuments(Query query, int numTopDocuments, boolean[] isExcluded,
+			String[] documentIds)
+	{
+		PriorityQueue<SongScore> topDocuments = new PriorityQueue<SongScore>(numTopDocuments);
+		
+		// Query terms sorted by increasing upper bound, by insertion as the queries are short
+		int numTerms = query.numTerms;
+		int[] terms = new int[numTerms];
+		double[] upperBounds = new double[numTerms];
+		double[] queryWeights = new double[numTerms];
+		for(int i = 0; i < numTerms; i++) {
+			double upperBound = query.weights[i]*maxTermWeights[query.terms[i]];
+			int j = i - 1;
+			while(j >= 0 && upperBounds[j] > upperBound) {
+				terms[j + 1] = terms[j];
+				upperBounds[j + 1] = upperBounds[j];
+				queryWeights[j + 1] = queryWeights[j];
+				--j;
+			}
+			terms[j + 1] = query.terms[i];
+			upperBounds[j + 1] = upperBound;
+			queryWeights[j + 1] = query.weights[i];
+		}
+		
+		// Sum of the upper bounds of the terms up to every term, and the cursors on their posting lists
+		double[] sumUpperBounds = new double[numTerms];
+		int[] positions = new int[numTerms];
+		int[] currentDocuments = new int[numTerms];
+		for(int i = 0; i < numTerms; i++) {
+			sumUpperBounds[i] = upperBounds[i] + ((i > 0) ? sumUpperBounds[i - 1] : 0.0);
+			currentDocuments[i] = postingDocuments[terms[i]][0];
+		}
+		
+		// The terms before the first essential term cannot get a document in the top N documents by
+		// themselves, so only the documents of the essential terms are candidates.
+		int firstEssentialTerm = 0;
+		double threshold = 0.0;
+		int nextDocument = NO_MORE_DOCUMENTS;
+		for(int i = 0; i < numTerms; i++) {
+			nextDocument = Math.min(nextDocument, currentDocuments[i]);
+		}
+		while(nextDocument != NO_MORE_DOCUMENTS) {
+			// Score the document on the essential terms, and find the next candidate in the same pass
+			int document = nextDocument;
+			nextDocument = NO_MORE_DOCUMENTS;
+			double score = 0.0;
+			for(int i = firstEssentialTerm; i < numTerms; i++) {
+				if(currentDocuments[i] == document) {
+					int[] documents = postingDocuments[terms[i]];
+					score += queryWeights[i]*postingWeights[terms[i]][positions[i]];
+					++positions[i];
+					currentDocuments[i] = (positions[i] < documents.length) ? documents[positions[i]] :
+							NO_MORE_DOCUMENTS;
+				}
+				nextDocument = Math.min(nextDocument, currentDocuments[i]);
+			}
+			if(isExcluded[document]) {
+				continue;
+			}
+			
+			// Add the other terms, from the highest upper bound, as long as the document may get in
+			for(int i = firstEssentialTerm - 1; i >= 0 && score + sumUpperBounds[i] > threshold; i--) {
+				int[] documents = postingDocuments[terms[i]];
+				positions[i] = skipTo(documents, positions[i], document);
+				if(positions[i] < documents.length && documents[positions[i]] == document) {
+					score += queryWeights[i]*postingWeights[terms[i]][positions[i]];
+				}
+			}
+			
+			if(topDocuments.size() < numTopDocuments || score > threshold) {
+				AlgoUtils.updateTopNSongs(numTopDocuments, topDocuments, documentIds[document], score);
+				if(topDocuments.size() == numTopDocuments) {
+					threshold = topDocuments.peek().getScore();
+					while(firstEssentialTerm < numTerms && sumUpperBounds[firstEssentialTerm] <= threshold) {
+						++firstEssentialTerm;
+					}
+				}
+			}
+		}
+		
+		return topDocuments;
+	}
+	
+	/**
+	 * Gets the top N documents for a query by scoring every document containing a query term.
+	 *
+	 * @param documentScores	Scratch accumulator of the documents
+	 */
+	public PriorityQueue<SongScore> getTopDocumentsExhaustively(Query query, int numTopDocuments,
+			boolean[] isExcluded, String[] documentIds, ScoreAccumulator documentScores)
+	{
+		for(int i = 0; i < query.numTerms; i++) {
+			int[] documents = postingDocuments[query.terms[i]];
+			float[] weights = postingWeights[query.terms[i]];
+			for(int j = 0; j < documents.length; j++) {
+				documentScores.add(documents[j], query.weights[i]*weights[j]);
+			}
+		}
+		for(int i = 0; i < documentScores.getNumTouchedSongs(); i++) {
+			int doc = documentScores.getTouchedSong(i);
+			if(isExcluded[doc]) {
+				documentScores.exclude(doc);
+			}
+		}
+		
+		PriorityQueue<SongScore> topDocuments = documentScores.getTopNSongScores(numTopDocuments, documentIds);
+		documentScores.reset();
+		return topDocuments;
+	}
+	
+	/**
+	 * Gets the first position, from a position on, of a posting list whose document is at least the
+	 * target document : the steps grow exponentially, then the last step is binary searched.
+	 */
+	private static int skipTo(int[] documents, int position, int targetDocument)
+	{
+		int low = position;
+		int high = position;
+		int step = 1;
+		while(high < documents.length && documents[high] < targetDocument) {
+			low = high + 1;
+			high += step;
+			step <<= 1;
+		}
+		
+		high = Math.min(high, documents.length);
+		while(low < high) {
+			int middle = (low + high) >>> 1;
+			if(documents[middle] < targetDocument) {
+				low = middle + 1;
+			}
+			else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+}
@@ -0,0 +1,110 @@
+package algos;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+
+import utils.DenseVectors;
+
+/**
+ * Sparse playcount feature vector of a user, along with its precomputed magnitude.
+ * 
+ * Only the songs listened by the user are stored, sorted by their song index, since the playcount
+ * of every other song is zero. The playcounts of the first few song indices, which are given to the
+ * most popular songs, are also stored densely : most users have listened to some of them, and a
+ * dense dot product over them is much faster than merging their song lists.
+ * 
+ * @author excelsior
+ *
+ */
+class FeatureVector
+{
+	int[] songs;			// Indices of the songs listened, in increasing order
+	int[] playcounts;		// Playcount of each of the songs above
+	double magnitude;
+	
+	int[] densePlaycounts;	// Playcount of every song with an index lower than the dense songs
+	int sparseStart;		// Position of the first song which is not a dense song
+	
+	/**
+	 * Builds the feature vector for a listening history. Songs which have no index only add to the
+	 * magnitude of the vector, since no other vector can have a non-zero playcount for them.
+	 * 
+	 * @param userListeningHistory		Map of song to playcount for the user
+	 * @param songIndexMap				Map of song to its index
+	 * @param numDenseSongs				Number of songs, starting from index 0, stored densely
+	 */
+	public FeatureVector(Map<String, Integer> userListeningHistory, Map<String, Integer> songIndexMap, 
+			int numDenseSongs)
+	{
+		this(userListeningHistory.entrySet(), songIndexMap, numDenseSongs);
+	}
+	
+	/**
+	 * Builds the feature vector for the song to playcount entries of a listening history.
+	 */
+	public FeatureVector(Collection<Map.Entry<String, Integer>> userListeningHistory, 
+			Map<String, Integer> songIndexMap, int numDenseSongs)
+	{
+		long[] songPlaycounts = new long[userListeningHistory.size()];
+		int numSongs = 0;
+		long sumOfSquares = 0;
+		for(Map.Entry<String, Integer> entry : userListeningHistory) {
+			int playcount = entry.getValue();
+			sumOfSquares += (long)playcount*playcount;
+			
+			Integer song = songIndexMap.get(entry.getKey());
+			if(song != null) {
+				// Pack the song index in the high bits, so that sorting orders entries by song index
+				songPlaycounts[numSongs++] = ((long)song << 32) | (playcount & 0xffffffffL);
+			}
+		}
+		Arrays.sort(songPlaycounts, 0, numSongs);
+		
+		songs = new int[numSongs];
+		playcounts = new int[numSongs];
+		for(int i = 0; i < numSongs; i++) {
+			songs[i] = (int)(songPlaycounts[i] >>> 32);
+			playcounts[i] = (int)songPlaycounts[i];
+		}
+		magnitude = Math.sqrt(sumOfSquares);
+		
+		densePlaycounts = new int[numDenseSongs];
+		sparseStart = 0;
+		while(sparseStart < numSongs && songs[sparseStart] < numDenseSongs) {
+			densePlaycounts[songs[sparseStart]] = playcounts[sparseStart];
+			++sparseStart;
+		}
+	}
+	
+	/**
+	 * Calculate the dot product with another feature vector.
+	 * 
+	 * The dense songs are multiplied element by element, the other songs listened by both users are
+	 * found by merging the two sorted lists of songs. Both vectors must have the same dense songs.
+	 */
+	public long dotProduct(FeatureVector that)
+	{
+		long dotProduct = DenseVectors.dotProduct(this.densePlaycounts, that.densePlaycounts, 
+				this.densePlaycounts.length);
+		int thisIndex = this.sparseStart;
+		int thatIndex = that.sparseStart;
+		while(thisIndex < this.songs.length && thatIndex < that.songs.length) {
+			int thisSong = this.songs[thisIndex];
+			int thatSong = that.songs[thatIndex];
+			if(thisSong < thatSong) {
+				++thisIndex;
+			}
+			else if(thisSong > thatSong) {
+				++thatIndex;
+			}
+			else {
+				dotProduct += (long)this.playcounts[thisIndex]*that.playcounts[thatIndex];
+				++thisIndex;
+				++thatIndex;
+			}
+		}
+		
+		return dotProduct;
+	}
+}
@@ -0,0 +1,394 @@
+package algos;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import models.DataSet;
+import models.Song;
+import models.SongScore;
+
+import org.apache.log4j.Logger;
+
+import utils.AlgoUtils;
+import utils.ParallelUtils;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Class to represent the implicit feedback matrix factorization algorithm, trained with alternating
+ * least squares (Hu, Koren and Volinsky).
+ *
+ * Every user and every song gets a vector of latent factors. A user is predicted to like a song when
+ * the dot product of their factors is close to one, and the playcount of the song is only taken as
+ * the confidence in the fact that the user likes it : the songs never listened are taken as disliked
+ * with the lowest confidence. Fixing the song factors, the factors of every user are the solution of
+ * a small regularized least squares problem, and the other way round, so the user factors and the
+ * song factors are solved alternately. The rows of a step are independent, so they are solved on
+ * multiple threads.
+ *
+ * Test users are not part of the model : their factors are solved once from their visible songs
+ * with the trained song factors, and their recommendations are the songs with the highest dot
+ * product, so that the cost of recommending does not depend on the size of the train dataset.
+ *
+ * @author excelsior
+ *
+ */
+public class ImplicitALS implements Algorithm
+{
+	private static Logger LOG = Logger.getLogger(ImplicitALS.class);
+	
+	// Number of songs to recommend for a user
+	private int mSongsCount = 0;
+	
+	private DataSet mTrainDataset = null;
+	
+	private static final long FACTORS_SEED = 0xA15L;
+	
+	// Number of users or songs solved by a task at a time
+	private static final int CHUNK_SIZE = 256;
+	
+	private int numFactors = 32;
+	private double regularization = 0.1;
+	private double alpha = 10.0;		// Confidence of a playcount is 1 + alpha*log(1 + playcount)
+	private int numIterations = 10;
+	private int numThreads = Runtime.getRuntime().availableProcessors();
+	
+	// Train songs, indexed by their row in the song factors
+	private String[] mSongIds = null;
+	private Map<String, Integer> mSongIndexMap = null;
+	
+	// Factors of the songs, one row of numFactors after the other, and their gram matrix
+	private double[] mSongFactors = null;
+	private double[] mSongFactorsGram = null;
+	
+	public ImplicitALS(int numSongsToRecommend)
+	{
+		this.mSongsCount = numSongsToRecommend;
+	}
+	
+	public int getNumFactors()
+	{
+		return numFactors;
+	}
+	
+	public void setNumFactors(int numFactors)
+	{
+		this.numFactors = numFactors;
+	}
+	
+	public double getRegularization()
+	{
+		return regularization;
+	}
+	
+	public void setRegularization(double regularization)
+	{
+		this.regularization = regularization;
+	}
+	
+	public double getAlpha()
+	{
+		return alpha;
+	}
+	
+	public void setAlpha(double alpha)
+	{
+		this.alpha = alpha;
+	}
+	
+	public int getNumIterations()
+	{
+		return numIterations;
+	}
+	
+	public void setNumIterations(int numIterations)
+	{
+		this.numIterations = numIterations;
+	}
+	
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+	
+	public void setNumThreads(int numThreads)
+	{
+		this.numThreads = numThreads;
+	}
+	
+	/**
+	 * Solves the user and song factors alternately, starting from small random song factors.
+	 */
+	public void generateModel(DataSet trainDataset)
+	{
+		this.mTrainDataset = trainDataset;
+		
+		mSongIds = trainDataset.getSongMap().keySet().toArray(new String[trainDataset.getSongMap().size()]);
+		mSongIndexMap = Maps.newHashMap();
+		for(int i = 0; i < mSongIds.length; i++) {
+			mSongIndexMap.put(mSongIds[i], i);
+		}
+		
+		// Songs and confidences of every user, and the transposed users and confidences of every song
+		Map<String, Map<String, Integer>> trainListeningHistory = trainDataset.getUserListeningHistory();
+		int numUsers = trainListeningHistory.size();
+		int[][] userSongs = new int[numUsers][];
+		double[][] userConfidences = new double[numUsers][];
+		int[] numSongListeners = new int[mSongIds.length];
+		int user = 0;
+		for(Map<String, Integer> history : trainListeningHistory.values()) {
+			userSongs[user] = new int[history.size()];
+			userConfidences[user] = new double[history.size()];
+			int i = 0;
+			for(Map.Entry<String, Integer> entry : history.entrySet()) {
+				userSongs[user][i] = mSongIndexMap.get(entry.getKey());
+				userConfidences[user][i] = getConfidence(entry.getValue());
+				++numSongListeners[userSongs[user][i]];
+				++i;
+			}
+			++user;
+		}
+		
+		int[][] songUsers = new int[mSongIds.length][];
+		double[][] songConfidences = new double[mSongIds.length][];
+		for(int song = 0; song < mSongIds.length; song++) {
+			songUsers[song] = new int[numSongListeners[song]];
+			songConfidences[song] = new double[numSongListeners[song]];
+			numSongListeners[song] = 0;
+		}
+		for(user = 0; user < numUsers; user++) {
+			for(int i = 0; i < userSongs[user].length; i++) {
+				int song = userSongs[user][i];
+				songUsers[song][numSongListeners[song]] = user;
+				songConfidences[song][numSongListeners[song]] = userConfidences[user][i];
+				++numSongListeners[song];
+			}
+		}
+		
+		Random random = new Random(FACTORS_SEED);
+		double[] userFactors = new double[numUsers*numFactors];
+		mSongFactors = new double[mSongIds.length*numFactors];
+		for(int i = 0; i < mSongFactors.length; i++) {
+			mSongFactors[i] = 0.01*random.nextGaussian();
+		}
+		
+		for(int iteration = 0; iteration < numIterations; iteration++) {
+			Stopwatch iterationTimer = Stopwatch.createStarted();
+			solveFactors(userFactors, mSongFactors, userSongs, userConfidences);
+			solveFactors(mSongFactors, userFactors, songUsers, songConfidences);
+			LOG.info("ALS iteration " + iteration + " for " + numUsers + " users and " + mSongIds.length +
+					" songs on " + numThreads + " threads in " + iterationTimer.elapsed(TimeUnit.MILLISECONDS) + " ms.");
+		}
+		mSongFactorsGram = getGram(mSongFactors);
+	}
+	
+	private double getConfidence(int playcount)
+	{
+		return 1.0 + alpha*Math.log(1.0 + playcount);
+	}
+	
+	/**
+	 * Solves the factors of every row (user or song), given the fixed factors of the columns.
+	 *
+	 * @param rowFactors		Factors to solve
+	 * @param columnFactors		Fixed factors
+	 * @param rowColumns		Columns with a playcount in every row
+	 * @param rowConfidences	Confidence of each of these playcounts
+	 */
+	private void solveFactors(final double[] rowFactors, final double[] columnFactors, final int[][] rowColumns,
+			final double[][] rowConfidences)
+	{
+		final double[] gram = getGram(columnFactors);
+		ParallelUtils.runInChunks(rowColumns.length, CHUNK_SIZE, numThreads, new ParallelUtils.RangeTask() {
+			public void run(int start, int end)
+			{
+				double[] a = new double[numFactors*numFactors];
+				double[] b = new double[numFactors];
+				for(int row = start; row < end; row++) {
+					solveRow(gram, columnFactors, rowColumns[row], rowConfidences[row], a, b);
+					System.arraycopy(b, 0, rowFactors, row*numFactors, numFactors);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Gets the gram matrix F'F of a matrix of factors F, shared by all the least squares problems of a
+	 * step, so that every problem only needs to add the terms of its own playcounts.
+	 */
+	private double[] getGram(double[] factors)
+	{
+		double[] gram = new double[numFactors*numFactors];
+		for(int offset = 0; offset < factors.length; offset += numFactors) {
+			for(int i = 0; i < numFactors; i++) {
+				double fi = factors[offset + i];
+				for(int j = 0; j <= i; j++) {
+					gram[i*numFactors + j] += fi*factors[offset + j];
+				}
+			}
+		}
+		for(int i = 0; i < numFactors; i++) {
+			for(int j = 0; j < i; j++) {
+				gram[j*numFactors + i] = gram[i*numFactors + j];
+			}
+		}
+		return gram;
+	}
+	
+	/**
+	 * Solves the factors x of one row : (F'F + F'(C - I)F + lambda*I) x = F'C p, where C holds the
+	 * confidences of the row and p is 1 for the columns with a playcount, 0 otherwise.
+	 *
+	 * @param a		Scratch matrix
+	 * @param b		Scratch vector, holding the solved factors on return
+	 */
+	private void solveRow(double[] gram, double[] columnFactors, int[] columns, double[] confidences,
+			double[] a, double[] b)
+	{
+		System.arraycopy(gram, 0, a, 0, a.length);
+		for(int i = 0; i < numFactors; i++) {
+			a[i*numFactors + i] += regularization;
+			b[i] = 0.0;
+		}
+		
+		for(int c = 0; c < columns.length; c++) {
+			int offset = columns[c]*numFactors;
+			double confidence = confidences[c];
+			for(int i = 0; i < numFactors; i++) {
+				double fi = columnFactors[offset + i];
+				b[i] += confidence*fi;
+				double weightedFi = (confidence - 1.0)*fi;
+				for(int j = 0; j <= i; j++) {
+					a[i*numFactors + j] += weightedFi*columnFactors[offset + j];
+				}
+			}
+		}
+		
+		choleskySolve(a, b, numFactors);
+	}
+	
+	/**
+	 * Solves A x = b in place for a symmetric positive definite matrix A, of which only the lower
+	 * triangle is read. A is overwritten by its Cholesky factor L (A = LL'), and b by x.
+	 */
+	static void choleskySolve(double[] a, double[] b, int n)
+	{
+		for(int i = 0; i < n; i++) {
+			for(int j = 0; j <= i; j++) {
+				double sum = a[i*n + j];
+				for(int k = 0; k < j; k++) {
+					sum -= a[i*n + k]*a[j*n + k];
+				}
+				if(i == j) {
+					a[i*n + i] = Math.sqrt(Math.max(sum, Double.MIN_NORMAL));
+				}
+				else {
+					a[i*n + j] = sum/a[j*n + j];
+				}
+			}
+		}
+		
+		// Forward substitution L y = b, then backward substitution L' x = y
+		for(int i = 0; i < n; i++) {
+			double sum = b[i];
+			for(int k = 0; k < i; k++) {
+				sum -= a[i*n + k]*b[k];
+			}
+			b[i] = sum/a[i*n + i];
+		}
+		for(int i = n - 1; i >= 0; i--) {
+			double sum = b[i];
+			for(int k = i + 1; k < n; k++) {
+				sum -= a[k*n + i]*b[k];
+			}
+			b[i] = sum/a[i*n + i];
+		}
+	}
+	
+	public Map<String, List<Song>> recommend(final DataSet testVisibleDataset)
+	{
+		final List<String> testVisibleUsers = testVisibleDataset.getListOfUsers();
+		final List<Song> popularSongs = mTrainDataset.getOverallNPopularSongs(mSongsCount);
+		final List<List<Song>> recommendations = Lists.newArrayList();
+		for(int i = 0; i < testVisibleUsers.size(); i++) {
+			recommendations.add(null);
+		}
+		
+		ParallelUtils.runInChunks(testVisibleUsers.size(), CHUNK_SIZE, numThreads, new ParallelUtils.RangeTask() {
+			public void run(int start, int end)
+			{
+				double[] a = new double[numFactors*numFactors];
+				double[] b = new double[numFactors];
+				boolean[] isListened = new boolean[mSongIds.length];
+				for(int user = start; user < end; user++) {
+					Map<String, Integer> history = testVisibleDataset.getUserListeningHistory().get(testVisibleUsers.get(user));
+					List<Song> userRecommendations = getSongRecommendations(history, a, b, isListened);
+					recommendations.set(user, AlgoUtils.checkAndUpdateTopNSongs(userRecommendations, mSongsCount,
+							popularSongs));
+				}
+			}
+		});
+		
+		Map<String, List<Song>> songRecommendationsForUserMap = Maps.newHashMap();
+		for(int user = 0; user < testVisibleUsers.size(); user++) {
+			songRecommendationsForUserMap.put(testVisibleUsers.get(user), recommendations.get(user));
+		}
+		return songRecommendationsForUserMap;
+	}
+	
+	/**
+	 * Solves the factors of a test user from the visible songs, and gets the top N songs not listened
+	 * yet by the highest dot product with the factors of the user.
+	 * 
+	 * @param isListened	Scratch array of flags, all false, for every song
+	 */
+	private List<Song> getSongRecommendations(Map<String, Integer> history, double[] a, double[] b, 
+			boolean[] isListened)
+	{
+		int[] songs = new int[history.size()];
+		double[] confidences = new double[history.size()];
+		int numSongs = 0;
+		for(Map.Entry<String, Integer> entry : history.entrySet()) {
+			Integer song = mSongIndexMap.get(entry.getKey());
+			if(song != null) {
+				songs[numSongs] = song;
+				confidences[numSongs] = getConfidence(entry.getValue());
+				++numSongs;
+			}
+		}
+		if(numSongs == 0) {
+			return Lists.newArrayList();
+		}
+		
+		songs = Arrays.copyOf(songs, numSongs);
+		solveRow(mSongFactorsGram, mSongFactors, songs, Arrays.copyOf(confidences, numSongs), a, b);
+		
+		for(int song : songs) {
+			isListened[song] = true;
+		}
+		PriorityQueue<SongScore> topNSongs = new PriorityQueue<SongScore>(mSongsCount);
+		for(int song = 0; song < mSongIds.length; song++) {
+			if(isListened[song]) {
+				continue;
+			}
+			
+			double score = 0.0;
+			int offset = song*numFactors;
+			for(int i = 0; i < numFactors; i++) {
+				score += b[i]*mSongFactors[offset + i];
+			}
+			AlgoUtils.updateTopNSongs(mSongsCount, topNSongs, mSongIds[song], score);
+		}
+		for(int song : songs) {
+			isListened[song] = false;
+		}
+		
+		return AlgoUtils.getTopNSongs(topNSongs, mTrainDataset);
+	}
+}
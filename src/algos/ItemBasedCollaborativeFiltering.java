@@ -3,7 +3,6 @@ package algos;
 import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
-import java.util.Set;
 
 import models.DataSet;
 import models.Song;
@@ -12,11 +11,11 @@ import models.SongScore;
 import org.apache.log4j.Logger;
 
 import utils.AlgoUtils;
+import utils.CoListeningCounter;
+import utils.ScoreAccumulator;
 
-import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
-import com.google.common.collect.Table;
 
 /**
  * Implements in-memory item-based collaborative filtering for making best recommendations.
@@ -34,13 +33,137 @@ public class ItemBasedCollaborativeFiltering implements Algorithm
 	private int numSongsToRecommend = 0;
 	private DataSet trainDataset;
 	
+	// Maximum number of most similar songs retained for every song in the train dataset
+	private int numNeighbours = 10;
+	
+	// Pairs of songs with a lower similarity score or fewer common listeners are never retained
+	private double minSimScore = 0.0;
+	private int minCommonUsers = 1;
+	
+	// MinHash mode : the similarity of two songs is estimated from fixed-size signatures of their
+	// listeners, and only the candidate songs found through the banded LSH index are compared with a
+	// song, instead of every song it has been listened together with.
+	private boolean minHash = false;
+	private int numHashBands = 32;
+	private int numRowsPerBand = 2;
+	private static final long MINHASH_SEED = 0x3141L;
+	
+	// Train songs indexed by their position in the neighbour lists
+	private String[] songIds = null;
+	private Map<String, Integer> songIndexMap = null;
+	
+	// For every song, its most similar songs and their similarity scores in decreasing order
+	private int[][] songNeighbours = null;
+	private double[][] songNeighbourScores = null;
+	
 	public ItemBasedCollaborativeFiltering(int numSongsToRecommend)
 	{
 		this.numSongsToRecommend = numSongsToRecommend;
 	}
 	
+	public int getNumNeighbours()
+	{
+		return numNeighbours;
+	}
+	
+	public void setNumNeighbours(int numNeighbours)
+	{
+		this.numNeighbours = numNeighbours;
+	}
+	
+	public double getMinSimScore()
+	{
+		return minSimScore;
+	}
+	
+	public void setMinSimScore(double minSimScore)
+	{
+		this.minSimScore = minSimScore;
+	}
+	
+	public int getMinCommonUsers()
+	{
+		return minCommonUsers;
+	}
+	
+	public void setMinCommonUsers(int minCommonUsers)
+	{
+		this.minCommonUsers = minCommonUsers;
+	}
+	
+	public boolean isMinHash()
+	{
+		return minHash;
+	}
+	
+	public void setMinHash(boolean minHash)
+	{
+		this.minHash = minHash;
+	}
+	
+	public int getNumHashBands()
+	{
+		return numHashBands;
+	}
+	
+	public void setNumHashBands(int numHashBands)
+	{
+		this.numHashBands = numHashBands;
+	}
+	
+	public int getNumRowsPerBand()
+	{
+		return numRowsPerBand;
+	}
+	
+	public void setNumRowsPerBand(int numRowsPerBand)
+	{
+		this.numRowsPerBand = numRowsPerBand;
+	}
+	
+	/**
+	 * Song ID of every song index, once the model has been generated.
+	 */
+	public String[] getSongIds()
+	{
+		return songIds;
+	}
+	
+	public Map<String, Integer> getSongIndexMap()
+	{
+		return songIndexMap;
+	}
+	
+	/**
+	 * Most similar songs to the song, in decreasing order of similarity.
+	 */
+	public int[] getSongNeighbours(int song)
+	{
+		return songNeighbours[song];
+	}
+	
+	/**
+	 * Similarity scores of the songs returned by {@link #getSongNeighbours(int)}.
+	 */
+	public double[] getSongNeighbourScores(int song)
+	{
+		return songNeighbourScores[song];
+	}
+	
+	/**
+	 * Builds the song-to-song similarity matrix from the train dataset, so that recommending only
+	 * has to look up the precomputed scores.
+	 */
 	public void generateModel(DataSet trainSet) {
 		this.trainDataset = trainSet;
+		buildSongSimilarityMatrix();
+		
+		long numSimilarPairs = 0;
+		for(int[] neighbours : songNeighbours) {
+			numSimilarPairs += neighbours.length;
+		}
+		LOG.info("Sim matrix => Songs : " + songIds.length + ", Similar pairs : " + numSimilarPairs + 
+				", Neighbours per song : " + numNeighbours);
 	}
 
 	public Map<String, List<Song>> recommend(DataSet testVisibleDataset) 
@@ -50,39 +173,37 @@ public class ItemBasedCollaborativeFiltering implements Algorithm
 		
 		Map<String, List<Song>> recommendations = Maps.newHashMap();
 		
-		// Song-to-song similarity matrix
-		Table<String, String, Double> songSimMatrix = getSongSimilarityMatrix(testVisibleDataset);
-		LOG.info("Sim matrix => Rows : " + songSimMatrix.rowKeySet().size() + 
-				", Columns : " + songSimMatrix.columnKeySet().size());
-		
-		Set<String> allTrainSongs = trainDataset.getSongMap().keySet();
+		// Scores of the train songs for the test user being processed, reused across test users
+		ScoreAccumulator songWeights = new ScoreAccumulator(songIds.length);
 		
 		for(String testUser : testVisibleDataset.getListOfUsers()) {
-			Set<String> testUserSongs = Sets.newHashSet(testVisibleDataset.getSongsForUser(testUser));
-			
-			/**
-			 * Only consider those songs for recommendations which have not been listened to by the
-			 * test user
-			 */
-			Set<String> songsToEvaluate = AlgoUtils.getUnexploredSongs(testUserSongs, allTrainSongs);
+			List<Integer> testUserSongs = Lists.newArrayList();
+			for(String testSong : testVisibleDataset.getSongsForUser(testUser)) {
+				Integer testSongIndex = songIndexMap.get(testSong);
+				if(testSongIndex != null) {
+					testUserSongs.add(testSongIndex);
+					
+					// Only recommend songs which have not been listened to by the test user
+					songWeights.exclude(testSongIndex);
+				}
+			}
 			
 			/**
 			 * Calculate the score for each training song to be picked among the top N recommended songs.
-			 * Sum the score of train song column in the matrix across all the test songs rows for this
-			 * user.
+			 * Only the neighbours of the songs listened by the test user can get a non-zero score, so
+			 * sum the similarity scores along the neighbour list of every test user song.
 			 */
-			PriorityQueue<SongScore> topNSongScores = new PriorityQueue<SongScore>(numSongsToRecommend);			
-			for(String trainSong : songsToEvaluate) {
-				double weightTrainSong = 0.0;
-				for(String testSong : testUserSongs) {
-					if(songSimMatrix.contains(testSong, trainSong)) {
-						weightTrainSong += songSimMatrix.get(testSong, trainSong);					
-					}
+			for(int testSong : testUserSongs) {
+				int[] neighbours = songNeighbours[testSong];
+				double[] neighbourScores = songNeighbourScores[testSong];
+				for(int i = 0; i < neighbours.length; i++) {
+					songWeights.add(neighbours[i], neighbourScores[i]);
 				}
-				
-				AlgoUtils.updateTopNSongs(numSongsToRecommend, topNSongScores, trainSong, weightTrainSong);
 			}
 			
+			PriorityQueue<SongScore> topNSongScores = songWeights.getTopNSongScores(numSongsToRecommend, songIds);
+			songWeights.reset();
+			
 			List<Song> topNSongs = AlgoUtils.getTopNSongs(topNSongScores, trainDataset);
 			topNSongs = AlgoUtils.checkAndUpdateTopNSongs(topNSongs, numSongsToRecommend, 
 					trainDataset.getOverallNPopularSongs(numSongsToRecommend));
@@ -93,79 +214,165 @@ public class ItemBasedCollaborativeFiltering implements Algorithm
 	}
 
 	/**
-	 * Returns a song-to-song similarity matrix.
+	 * Builds a song-to-song similarity matrix.
 	 * 
-	 * Row header consists of a song listened by a test user and column header consists of all
-	 * songs in the train dataset. The cell values consist of the similarity scores for a pair of
-	 * songs. If this score is high, it implies that these songs are highly co-related and should
-	 * probably be recommended together.
+	 * Row and column headers both consist of songs in the train dataset. The cell values consist of
+	 * the similarity scores for a pair of songs. If this score is high, it implies that these songs
+	 * are highly co-related and should probably be recommended together.
 	 * 
-	 * This matrix can become really huge so need to optimize it a bit. Only store 10 best similar
-	 * train songs for every test sons, instead of storing the similarity with every train song.
+	 * Instead of intersecting the listeners of every pair of songs, the common listeners of a song
+	 * with every other song are counted by walking the listening history of each of its listeners.
+	 * Pairs of songs which are never listened together are thus never touched, and the cost of
+	 * building the matrix is the sum of the squared number of songs per user rather than the square
+	 * of the number of songs.
 	 * 
-	 * @param testVisibleDataset
-	 * @return
+	 * This matrix can become really huge so need to optimize it a bit. Only the best
+	 * {@link #numNeighbours} similar songs are stored for every song, in compact arrays, instead of
+	 * storing the similarity with every song it has been listened together with.
 	 */
-	private Table<String, String, Double> getSongSimilarityMatrix(DataSet testVisibleDataset)
+	private void buildSongSimilarityMatrix()
 	{
-		Table<String, String, Double> itemSimMatrix = HashBasedTable.create();
+		CoListeningCounter coListeningCounter = new CoListeningCounter(trainDataset);
+		int numSongs = coListeningCounter.getNumSongs();
+		songIds = coListeningCounter.getSongIds();
+		songIndexMap = coListeningCounter.getSongIndexMap();
 		
-		Map<String, Song> testSongMap = testVisibleDataset.getSongMap();
-		Map<String, Song> trainSongMap = trainDataset.getSongMap();
+		int[] songUsers = new int[numSongs];
+		for(int i = 0; i < numSongs; i++) {
+			songUsers[i] = coListeningCounter.getNumListeners(i);
+		}
 		
-		Set<String> testSongs = testSongMap.keySet();
-		Set<String> allTrainSongs = trainSongMap.keySet();
-		Set<String> trainSongsToEvaluate = AlgoUtils.getUnexploredSongs(testSongs, allTrainSongs);
-
-		for(String testSong : testSongs) {
-			Set<String> testSongUsers = Sets.newHashSet(testSongMap.get(testSong).getListenersList());
-			for(String trainSong : trainSongsToEvaluate) {
-				Set<String> trainSongUsers = Sets.newHashSet(trainSongMap.get(trainSong).getListenersList());
-				int commonUsers = getCommonUsers(testSongUsers, trainSongUsers);
-				// Optimization : Don't add to similarity matrix, if there are no common listeners
-				// to these pair of songs.
-
-				if(commonUsers == 0) {
-					continue;
+		songNeighbours = new int[numSongs][];
+		songNeighbourScores = new double[numSongs][];
+		
+		if(isMinHash()) {
+			buildMinHashSongSimilarityMatrix(songUsers, coListeningCounter.getUserSongsMap());
+			return;
+		}
+		
+		for(int songA = 0; songA < numSongs; songA++) {
+			int numTouchedSongs = coListeningCounter.count(songA, false);
+			int[] touchedSongs = coListeningCounter.getTouchedSongs();
+			
+			PriorityQueue<SimilarSong> topNeighbours = new PriorityQueue<SimilarSong>();
+			for(int i = 0; i < numTouchedSongs; i++) {
+				int songB = touchedSongs[i];
+				int commonUsers = coListeningCounter.getJointCount(songB);
+				if(commonUsers >= minCommonUsers) {
+					double simScore = getSimScoreBwSongs(commonUsers, songUsers[songA], songUsers[songB]);
+					if(Double.compare(simScore, minSimScore) >= 0) {
+						updateTopNeighbours(topNeighbours, songB, simScore);
+					}
 				}
-				
-				double simScore = getSimScoreBwSongs(commonUsers, testSongUsers.size(), trainSongUsers.size());
-				itemSimMatrix.put(testSong, trainSong, simScore);
 			}
 			
+			storeTopNeighbours(songA, topNeighbours);
 		}
-		
-		return itemSimMatrix;
 	}
 	
 	/**
-	 * Get the number of common users for two set of listeners for two different songs.
+	 * Builds the song-to-song similarity matrix from the MinHash signatures of the songs.
+	 * 
+	 * The signatures are computed in a single pass over the listening histories. The neighbours of a
+	 * song are then only searched among its candidates in the LSH index, and the number of common
+	 * listeners of a pair is estimated from the Jaccard similarity J of their signatures, as
+	 * J*(|A| + |B|)/(1 + J), so that the similarity score stays the same cosine as the exact mode.
 	 */
-	private int getCommonUsers(Set<String> setA, Set<String> setB)
+	private void buildMinHashSongSimilarityMatrix(int[] songUsers, Map<String, int[]> userSongsMap)
 	{
-		if(setA == null || setB == null || setA.isEmpty() || setB.isEmpty()) {
-			return 0;
+		int numSongs = songIds.length;
+		MinHashIndex index = new MinHashIndex(numSongs, numHashBands, numRowsPerBand, MINHASH_SEED);
+		int user = 0;
+		for(int[] userSongs : userSongsMap.values()) {
+			index.add(user++, userSongs);
 		}
+		index.buildBands();
 		
-		int commonUsers = Sets.intersection(setA, setB).size();
-		//LOG.info("Find common users between " + setA.toString() + ", " + setB.toString() + ", " + commonUsers);
-		return commonUsers;
+		int[] candidates = new int[numSongs];
+		boolean[] isCandidate = new boolean[numSongs];
+		for(int songA = 0; songA < numSongs; songA++) {
+			PriorityQueue<SimilarSong> topNeighbours = new PriorityQueue<SimilarSong>();
+			int numCandidates = index.getCandidates(songA, candidates, isCandidate);
+			for(int i = 0; i < numCandidates; i++) {
+				int songB = candidates[i];
+				double jaccard = index.getJaccardSimilarity(songA, songB);
+				double commonUsers = jaccard*(songUsers[songA] + songUsers[songB])/(1.0 + jaccard);
+				if(jaccard > 0.0 && Math.round(commonUsers) >= minCommonUsers) {
+					double simScore = getSimScoreBwSongs(commonUsers, songUsers[songA], songUsers[songB]);
+					if(Double.compare(simScore, minSimScore) >= 0) {
+						updateTopNeighbours(topNeighbours, songB, simScore);
+					}
+				}
+			}
+			
+			storeTopNeighbours(songA, topNeighbours);
+		}
+	}
+	
+	/**
+	 * Stores the neighbours of a song in the decreasing order of their similarity scores.
+	 */
+	private void storeTopNeighbours(int song, PriorityQueue<SimilarSong> topNeighbours)
+	{
+		int numSongNeighbours = topNeighbours.size();
+		songNeighbours[song] = new int[numSongNeighbours];
+		songNeighbourScores[song] = new double[numSongNeighbours];
+		for(int i = numSongNeighbours - 1; i >= 0; i--) {
+			SimilarSong neighbour = topNeighbours.remove();
+			songNeighbours[song][i] = neighbour.song;
+			songNeighbourScores[song][i] = neighbour.simScore;
+		}
+	}
+	
+	/**
+	 * Updates the priority queue to ensure that only the {@link #numNeighbours} most similar songs
+	 * are retained.
+	 */
+	private void updateTopNeighbours(PriorityQueue<SimilarSong> topNeighbours, int song, double simScore)
+	{
+		if(topNeighbours.size() < numNeighbours) {
+			topNeighbours.add(new SimilarSong(song, simScore));
+		}
+		else if(!topNeighbours.isEmpty() && Double.compare(topNeighbours.peek().simScore, simScore) < 0) {
+			topNeighbours.remove();
+			topNeighbours.add(new SimilarSong(song, simScore));
+		}
 	}
 	
 	/**
 	 * Gets the similarity score between two songs.
 	 * 
 	 * @param commonUsers			Number of common listeners for both the songs.	
-	 * @param testSongUsers			Number of listeners for the test song.
-	 * @param trainSongUsers		Number of listeners for the train song.
-	 * @return	Similarity score between a test and train song.
+	 * @param songAUsers			Number of listeners for the first song.
+	 * @param songBUsers			Number of listeners for the second song.
+	 * @return	Similarity score between the two songs.
 	 */
-	private double getSimScoreBwSongs(int commonUsers, int testSongUsers, int trainSongUsers)
+	private double getSimScoreBwSongs(double commonUsers, int songAUsers, int songBUsers)
 	{
 		double score = (double)(commonUsers)/
-				(double)((Math.pow(testSongUsers, 0.5))*(Math.pow(trainSongUsers, 0.5)));
+				(double)((Math.pow(songAUsers, 0.5))*(Math.pow(songBUsers, 0.5)));
 		
-		LOG.debug("Sim score for (" + commonUsers + ", " + testSongUsers + ", " + trainSongUsers + ") is " + score);
+		LOG.debug("Sim score for (" + commonUsers + ", " + songAUsers + ", " + songBUsers + ") is " + score);
 		return score;
 	}	
+	
+	/**
+	 * Models a song similar to the song whose neighbours are being computed.
+	 */
+	private static class SimilarSong implements Comparable<SimilarSong>
+	{
+		int song;
+		double simScore;
+		
+		public SimilarSong(int song, double simScore)
+		{
+			this.song = song;
+			this.simScore = simScore;
+		}
+		
+		public int compareTo(SimilarSong that)
+		{
+			return Double.compare(this.simScore, that.simScore);
+		}
+	}
 }
@@ -1,14 +1,20 @@
 package algos;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
+import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 
 import utils.AlgoUtils;
+import utils.Deadline;
+import models.BootstrapSample;
 import models.DataSet;
 import models.Song;
 import models.SongScore;
@@ -21,19 +27,79 @@ import com.google.common.collect.Sets;
 
 /**
  * Class to represent k-Nearest-Neighbor Algorithm
+ * 
+ * With a time budget, the train users are compared with a test user in the order they are found
+ * through its songs, from the least popular ones which tell the most about its taste, for half of
+ * the budget. The songs of the K nearest neighbours found are then scored from the most similar
+ * neighbour until the budget expires.
+ * 
+ * In sampled mode, a test user is only compared with the train users found through a random sample
+ * of the listeners of every song it has listened. The sample size is chosen on a few test users, as
+ * the smallest one for which the top N songs overlap the exact ones within maxOverlapError, see
+ * {@link SampleSizeCalibrator}. The sample is not used in approximate or batch mode.
  */
-public class KNN implements Algorithm
+public class KNN implements WeightedAlgorithm, CandidateScorer, AnytimeAlgorithm
 {
 	private static Logger LOG = Logger.getLogger(KNN.class);
 	
 	// Number of songs to recommend for a user
-	private static int mSongsCount = 0;
+	private int mSongsCount = 0;
 
-	private static DataSet mTrainDataset = null;
+	// Train songs and listening history of every train user, which can be a sample of the train
+	// dataset
+	private Map<String, Song> mTrainSongMap = null;
+	private Map<String, Collection<Map.Entry<String, Integer>>> mTrainHistories = null;
+	private List<Song> mPopularSongs = null;
+	
+	private static final long LSH_SEED = 0x5EEDL;
 	
 	// Number of neighbors to consider
 	private int numNeighbours = 80;
 	
+	// Train songs indexed by their position in the feature vectors, most popular songs first
+	private Map<String, Integer> mSongIndexMap = null;
+	
+	// Number of most popular songs stored densely in the feature vectors
+	private int numDenseSongs = 64;
+	private int mDenseSongs = 0;
+	
+	// Cache of all the train dataset features, instead of computing for every single user
+	private String[] mTrainUsers = null;
+	private FeatureVector[] mTrainFeatures = null;
+	
+	// Approximate mode : only the train users found through the LSH index are compared with a
+	// test user, instead of every train user. The index is built on the first approximate query,
+	// and again after its parameters change.
+	private boolean approximate = false;
+	private int numHashTables = 16;
+	private int numHashBits = 4;
+	private SimHashIndex mIndex = null;
+	
+	// Batch mode : all the test users are scored at once as a blocked sparse matrix product, on
+	// multiple threads. The blocked matrix is built on the first batch recommendations.
+	private boolean batch = false;
+	private int numThreads = Runtime.getRuntime().availableProcessors();
+	private BlockedCosineSimilarity mBatchSimilarity = null;
+	
+	// Time budget per test user in micro seconds, none if zero. Ignored in batch mode.
+	private long timeBudgetMicros = 0;
+	private Set<String> mInexactUsers = Sets.newHashSet();
+	
+	// Train users who listened to every song, built on the first use of the time budget or of the
+	// sampled mode, and scratch flags of the train users already compared with a test user
+	private int[][] mSongUsers = null;
+	private int mMaxSongUsers = 0;
+	private boolean[] mIsCompared = null;
+	
+	// Sampled mode : the train users of every song are in random order, and only the first ones are
+	// compared with a test user
+	private static final int NUM_CALIBRATION_USERS = 100;
+	private boolean sampled = false;
+	private int listenersPerSong = 0;
+	private double maxOverlapError = 0.1;
+	private int mSampledListenersPerSong = Integer.MAX_VALUE;
+	private double mEstimatedOverlap = 1.0;
+	
 	public KNN(int numSongsToRecommend)
 	{
 		this.mSongsCount = numSongsToRecommend;
@@ -49,88 +115,512 @@ public class KNN implements Algorithm
 		this.numNeighbours = numNeighbours;
 	}
 	
+	public int getNumDenseSongs()
+	{
+		return numDenseSongs;
+	}
+	
+	public void setNumDenseSongs(int numDenseSongs)
+	{
+		this.numDenseSongs = numDenseSongs;
+	}
+	
+	public boolean isApproximate()
+	{
+		return approximate;
+	}
+	
+	public void setApproximate(boolean approximate)
+	{
+		this.approximate = approximate;
+	}
+	
+	public int getNumHashTables()
+	{
+		return numHashTables;
+	}
+	
+	public void setNumHashTables(int numHashTables)
+	{
+		if(numHashTables != this.numHashTables) {
+			mIndex = null;
+		}
+		this.numHashTables = numHashTables;
+	}
+	
+	public int getNumHashBits()
+	{
+		return numHashBits;
+	}
+	
+	public void setNumHashBits(int numHashBits)
+	{
+		if(numHashBits != this.numHashBits) {
+			mIndex = null;
+		}
+		this.numHashBits = numHashBits;
+	}
+	
+	public boolean isBatch()
+	{
+		return batch;
+	}
+	
+	public void setBatch(boolean batch)
+	{
+		this.batch = batch;
+	}
+	
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+	
+	public void setNumThreads(int numThreads)
+	{
+		this.numThreads = numThreads;
+	}
+	
+	public long getTimeBudgetMicros()
+	{
+		return timeBudgetMicros;
+	}
+	
+	public void setTimeBudgetMicros(long timeBudgetMicros)
+	{
+		this.timeBudgetMicros = timeBudgetMicros;
+	}
+	
+	public Set<String> getInexactUsers()
+	{
+		return mInexactUsers;
+	}
+	
+	public boolean isSampled()
+	{
+		return sampled;
+	}
+	
+	public void setSampled(boolean sampled)
+	{
+		this.sampled = sampled;
+	}
+	
+	/**
+	 * Number of listeners sampled per song, chosen when recommending if zero.
+	 */
+	public int getListenersPerSong()
+	{
+		return listenersPerSong;
+	}
+	
+	public void setListenersPerSong(int listenersPerSong)
+	{
+		this.listenersPerSong = listenersPerSong;
+	}
+	
+	public double getMaxOverlapError()
+	{
+		return maxOverlapError;
+	}
+	
+	public void setMaxOverlapError(double maxOverlapError)
+	{
+		this.maxOverlapError = maxOverlapError;
+	}
+	
+	/**
+	 * Number of listeners per song sampled in the last recommendations.
+	 */
+	public int getSampledListenersPerSong()
+	{
+		return mSampledListenersPerSong;
+	}
+	
+	/**
+	 * Estimated overlap of the top N songs with the exact ones in the last recommendations, one if
+	 * the sample size was not chosen automatically.
+	 */
+	public double getEstimatedOverlap()
+	{
+		return mEstimatedOverlap;
+	}
+	
+	/**
+	 * Builds the feature vectors of all the train users, the LSH index over them in approximate
+	 * mode and their song postings in batch mode.
+	 */
 	public void generateModel(DataSet trainDataset)
 	{
-		// Do nothing but store the training dataset
-		this.mTrainDataset = trainDataset;
+		mTrainSongMap = trainDataset.getSongMap();
+		mPopularSongs = trainDataset.getOverallNPopularSongs(mSongsCount);
+		
+		List<String> songsByPopularity = Lists.newArrayList();
+		for(Song song : getSongsByPopularity(trainDataset)) {
+			songsByPopularity.add(song.getSongID());
+		}
+		
+		Map<String, Map<String, Integer>> trainListeningHistory = trainDataset.getUserListeningHistory();
+		String[] trainUsers = trainListeningHistory.keySet().toArray(new String[trainListeningHistory.size()]);
+		mTrainHistories = Maps.newHashMap();
+		for(String user : trainUsers) {
+			mTrainHistories.put(user, trainListeningHistory.get(user).entrySet());
+		}
+		
+		buildModel(songsByPopularity, trainUsers);
+	}
+	
+	/**
+	 * Builds the model from the interactions drawn in a sample of the train dataset only, without
+	 * materializing the sample as a dataset.
+	 */
+	public void generateModel(BootstrapSample sample)
+	{
+		mTrainSongMap = sample.getDataSet().getSongMap();
+		
+		final Map<String, Integer> numSampledListeners = Maps.newHashMap();
+		List<String> trainUsers = Lists.newArrayList();
+		mTrainHistories = Maps.newHashMap();
+		for(int user = 0; user < sample.getInteractions().getNumUsers(); user++) {
+			List<Map.Entry<String, Integer>> sampledHistory = sample.getSampledHistory(user);
+			if(sampledHistory.isEmpty()) {
+				continue;
+			}
+			
+			String userID = sample.getInteractions().getUser(user);
+			trainUsers.add(userID);
+			mTrainHistories.put(userID, sampledHistory);
+			for(Map.Entry<String, Integer> entry : sampledHistory) {
+				Integer numListeners = numSampledListeners.get(entry.getKey());
+				numSampledListeners.put(entry.getKey(), numListeners == null ? 1 : numListeners + 1);
+			}
+		}
+		
+		List<String> songsByPopularity = Lists.newArrayList(numSampledListeners.keySet());
+		Collections.sort(songsByPopularity, new Comparator<String>() {
+			public int compare(String a, String b)
+			{
+				return numSampledListeners.get(b) - numSampledListeners.get(a);
+			}
+		});
+		mPopularSongs = Lists.newArrayList();
+		for(String songID : songsByPopularity.subList(0, Math.min(mSongsCount, songsByPopularity.size()))) {
+			mPopularSongs.add(mTrainSongMap.get(songID));
+		}
+		
+		buildModel(songsByPopularity, trainUsers.toArray(new String[trainUsers.size()]));
+	}
+	
+	private void buildModel(List<String> songsByPopularity, String[] trainUsers)
+	{
+		Stopwatch cacheBuildTimer = Stopwatch.createStarted();
+		mSongIndexMap = Maps.newHashMap();
+		for(String songID : songsByPopularity) {
+			mSongIndexMap.put(songID, mSongIndexMap.size());
+		}
+		mDenseSongs = Math.min(getNumDenseSongs(), mSongIndexMap.size());
+		
+		mTrainUsers = trainUsers;
+		mTrainFeatures = new FeatureVector[mTrainUsers.length];
+		for(int i = 0; i < mTrainUsers.length; i++) {
+			mTrainFeatures[i] = new FeatureVector(mTrainHistories.get(mTrainUsers[i]), mSongIndexMap, 
+					mDenseSongs);
+		}
+		LOG.info("Built train feature vector cache in " + cacheBuildTimer.elapsed(TimeUnit.SECONDS) + " seconds.");
+		
+		mIndex = null;
+		mSongUsers = null;
+		mSampledListenersPerSong = Integer.MAX_VALUE;
+		mBatchSimilarity = null;
+	}
+	
+	/**
+	 * Gets the LSH index of the train users in approximate mode, building it on the first use.
+	 * 
+	 * @return	LSH index, or null in exact mode
+	 */
+	private SimHashIndex getIndex()
+	{
+		if(!isApproximate()) {
+			return null;
+		}
+		
+		if(mIndex == null) {
+			Stopwatch indexBuildTimer = Stopwatch.createStarted();
+			mIndex = new SimHashIndex(mSongIndexMap.size(), getNumHashTables(), getNumHashBits(), 
+					LSH_SEED);
+			for(int i = 0; i < mTrainFeatures.length; i++) {
+				mIndex.add(i, mTrainFeatures[i]);
+			}
+			LOG.info("Built LSH index with " + getNumHashTables() + " tables of " + getNumHashBits() + 
+					" bits in " + indexBuildTimer.elapsed(TimeUnit.SECONDS) + " seconds.");
+		}
+		return mIndex;
 	}
 
+	/**
+	 * Gets the songs of the dataset in the decreasing order of their number of listeners.
+	 */
+	private List<Song> getSongsByPopularity(DataSet dataset)
+	{
+		List<Song> songs = Lists.newArrayList(dataset.getSongMap().values());
+		Collections.sort(songs, new Comparator<Song>() {
+			public int compare(Song a, Song b)
+			{
+				return b.getListenersList().size() - a.getListenersList().size();
+			}
+		});
+		return songs;
+	}
+	
 	public Map<String, List<Song>> recommend(DataSet testVisibleDataset)
 	{
 		Map<String, List<Song>> songRecommendationsForUserMap = Maps.newHashMap();
+		mInexactUsers = Sets.newHashSet();
 		
 		List<String> testVisibleUsers = testVisibleDataset.getListOfUsers();
 		if(testVisibleUsers == null || testVisibleUsers.isEmpty()) {
 			return songRecommendationsForUserMap;
 		}
 
-		// Cache all the train dataset features, instead of computing for every single user
-		Map<String, List<Integer>> trainDatasetFeaturesMap = getTrainDatasetFeaturesMap(testVisibleDataset);
+		if(isBatch()) {
+			if(mBatchSimilarity == null) {
+				mBatchSimilarity = new BlockedCosineSimilarity(mTrainFeatures, mSongIndexMap.size());
+			}
+			return getBatchRecommendations(testVisibleUsers, testVisibleDataset);
+		}
+		
+		if((getTimeBudgetMicros() > 0 || isSampled()) && mSongUsers == null) {
+			buildSongUsers();
+		}
 		
+		mSampledListenersPerSong = Integer.MAX_VALUE;
+		mEstimatedOverlap = 1.0;
+		if(isSampled()) {
+			mSampledListenersPerSong = (getListenersPerSong() > 0) ? getListenersPerSong() : 
+				getCalibratedListenersPerSong(testVisibleDataset);
+			LOG.info("Sampling " + mSampledListenersPerSong + " listeners per song, estimated top N overlap : " + 
+					mEstimatedOverlap);
+		}
+		
+		return getRecommendations(testVisibleUsers, testVisibleDataset);
+	}
+	
+	/**
+	 * Chooses the number of listeners sampled per song on a few test users.
+	 */
+	private int getCalibratedListenersPerSong(DataSet testVisibleDataset)
+	{
+		SampleSizeCalibrator calibrator = new SampleSizeCalibrator(getMaxOverlapError(), NUM_CALIBRATION_USERS, 
+				LSH_SEED) {
+			protected Map<String, List<Song>> recommend(DataSet calibrationDataset, int sampleSize)
+			{
+				mSampledListenersPerSong = sampleSize;
+				return getRecommendations(calibrationDataset.getListOfUsers(), calibrationDataset);
+			}
+		};
+		int calibratedListenersPerSong = calibrator.getSampleSize(testVisibleDataset, 8, mMaxSongUsers);
+		mEstimatedOverlap = calibrator.getEstimatedOverlap();
+		return calibratedListenersPerSong;
+	}
+	
+	private Map<String, List<Song>> getRecommendations(List<String> testVisibleUsers, DataSet testVisibleDataset)
+	{
+		Map<String, List<Song>> songRecommendationsForUserMap = Maps.newHashMap();
+		mInexactUsers = Sets.newHashSet();
 		for(String user : testVisibleUsers) {
-			List<Song> recommendations = getSongRecommendations(user, trainDatasetFeaturesMap, testVisibleDataset);
+			List<Song> recommendations = getSongRecommendations(user, testVisibleDataset);
 			recommendations = AlgoUtils.checkAndUpdateTopNSongs(recommendations, mSongsCount, 
-					mTrainDataset.getOverallNPopularSongs(mSongsCount));
+					mPopularSongs);
 			songRecommendationsForUserMap.put(user, recommendations);
 		}
 		
+		if(getTimeBudgetMicros() > 0) {
+			LOG.info("Time budget of " + getTimeBudgetMicros() + " us cut short the recommendations of " + 
+					mInexactUsers.size() + " test users");
+		}
 		return songRecommendationsForUserMap;
 	}
 	
 	/**
-	 * Cache all the train dataset features
-	 * @return
+	 * Builds the lists of train users of every song, through which the train users sharing songs with
+	 * a test user are found under a time budget or in sampled mode. In sampled mode, the train users
+	 * of every song are shuffled so that any number of first ones is a random sample.
 	 */
-	private Map<String, List<Integer>> getTrainDatasetFeaturesMap(DataSet testVisibleDataset)
+	private void buildSongUsers()
 	{
-		Stopwatch cacheBuildTimer = Stopwatch.createStarted();
-		Map<String, List<Integer>> trainDatasetFeaturesMap = Maps.newHashMap();
+		int[] numSongUsers = new int[mSongIndexMap.size()];
+		for(FeatureVector trainFeature : mTrainFeatures) {
+			for(int song : trainFeature.songs) {
+				++numSongUsers[song];
+			}
+		}
 		
-		List<String> allSongs = getAllTrainTestSongs(testVisibleDataset);
-		Set<String> trainUsers = mTrainDataset.getUserListeningHistory().keySet();
-		for(String trainUser : trainUsers) {
-			List<Integer> trainFeature = getFeatureVector(trainUser, allSongs, mTrainDataset);
-			trainDatasetFeaturesMap.put(trainUser, trainFeature);
+		mSongUsers = new int[numSongUsers.length][];
+		for(int song = 0; song < numSongUsers.length; song++) {
+			mSongUsers[song] = new int[numSongUsers[song]];
+			numSongUsers[song] = 0;
+		}
+		for(int trainUser = 0; trainUser < mTrainFeatures.length; trainUser++) {
+			for(int song : mTrainFeatures[trainUser].songs) {
+				mSongUsers[song][numSongUsers[song]++] = trainUser;
+			}
 		}
 		
-		LOG.info("Built train feature vector cache in " + cacheBuildTimer.elapsed(TimeUnit.SECONDS) + " seconds.");
-		return trainDatasetFeaturesMap;
+		mMaxSongUsers = 0;
+		Random random = new Random(LSH_SEED);
+		for(int[] songUsers : mSongUsers) {
+			mMaxSongUsers = Math.max(mMaxSongUsers, songUsers.length);
+			for(int i = songUsers.length - 1; i > 0 && isSampled(); i--) {
+				int j = random.nextInt(i + 1);
+				int trainUser = songUsers[i];
+				songUsers[i] = songUsers[j];
+				songUsers[j] = trainUser;
+			}
+		}
+		mIsCompared = new boolean[mTrainFeatures.length];
 	}
 	
-	private List<String> getAllTrainTestSongs(DataSet testVisibleDataset)
+	/**
+	 * Get the song recommendations for all the test users, finding their K nearest neighbors in one
+	 * batch.
+	 * 
+	 * Only the train users sharing a song with a test user are found by the sparse product. If there
+	 * are fewer than K of them, the neighbours are completed with the first other train users with a
+	 * similarity of zero, as the exact mode would also pick some users with a similarity of zero.
+	 */
+	private Map<String, List<Song>> getBatchRecommendations(List<String> testVisibleUsers, DataSet testVisibleDataset)
 	{
-		Set<String> allSongs = Sets.newHashSet();
-		allSongs.addAll(mTrainDataset.getSongMap().keySet());
-		allSongs.addAll(testVisibleDataset.getSongMap().keySet());
-		return Lists.newArrayList(allSongs);
+		Stopwatch batchTimer = Stopwatch.createStarted();
+		FeatureVector[] testFeatures = new FeatureVector[testVisibleUsers.size()];
+		for(int i = 0; i < testFeatures.length; i++) {
+			testFeatures[i] = new FeatureVector(testVisibleDataset.getUserListeningHistory().get(testVisibleUsers.get(i)), 
+					mSongIndexMap, mDenseSongs);
+		}
+		
+		BlockedCosineSimilarity.Neighbours[] allNeighbours = 
+				mBatchSimilarity.getTopKNeighbours(testFeatures, getNumNeighbours(), getNumThreads());
+		LOG.info("Computed K-NN of " + testFeatures.length + " test users on " + getNumThreads() + 
+				" threads in " + batchTimer.elapsed(TimeUnit.MILLISECONDS) + " ms.");
+		
+		Map<String, List<Song>> songRecommendationsForUserMap = Maps.newHashMap();
+		for(int i = 0; i < testFeatures.length; i++) {
+			BlockedCosineSimilarity.Neighbours neighbours = allNeighbours[i];
+			PriorityQueue<SimilarUser> kNNUsers = new PriorityQueue<KNN.SimilarUser>(getNumNeighbours());
+			Set<Integer> neighbourUsers = Sets.newHashSet();
+			for(int j = 0; j < neighbours.size; j++) {
+				kNNUsers.add(new SimilarUser(mTrainUsers[neighbours.users[j]], neighbours.simScores[j]));
+				neighbourUsers.add(neighbours.users[j]);
+			}
+			for(int trainUser = 0; trainUser < mTrainUsers.length && kNNUsers.size() < getNumNeighbours(); trainUser++) {
+				if(!neighbourUsers.contains(trainUser)) {
+					kNNUsers.add(new SimilarUser(mTrainUsers[trainUser], 0.0));
+				}
+			}
+			
+			List<Song> recommendations = getSongsBasedOnKNN(kNNUsers, null, Deadline.NONE);
+			recommendations = AlgoUtils.checkAndUpdateTopNSongs(recommendations, mSongsCount, 
+					mPopularSongs);
+			songRecommendationsForUserMap.put(testVisibleUsers.get(i), recommendations);
+		}
+		
+		return songRecommendationsForUserMap;
+	}
+	
+	/**
+	 * Get the K nearest train users of a test user along with their similarity, exactly or through
+	 * the LSH index depending on the mode. Used to measure the recall of the approximate mode.
+	 */
+	public Map<String, Double> getNearestNeighbours(String user, DataSet testVisibleDataset)
+	{
+		Map<String, Double> neighbours = Maps.newHashMap();
+		for(SimilarUser similarUser : getKNNForUser(user, testVisibleDataset)) {
+			neighbours.put(similarUser.userId, similarUser.simScore);
+		}
+		return neighbours;
+	}
+	
+	/**
+	 * Scores only the candidate songs, from the listening histories of the K nearest neighbours of the
+	 * user. Finding the neighbours still compares the user with the train users.
+	 */
+	public PriorityQueue<SongScore> getTopCandidates(Map<String, Integer> history, Collection<String> candidates,
+			int numSongsToRecommend)
+	{
+		Set<String> candidateSongs = Sets.newHashSet();
+		for(String candidate : candidates) {
+			if(mTrainSongMap.containsKey(candidate) && !history.containsKey(candidate)) {
+				candidateSongs.add(candidate);
+			}
+		}
+		
+		Map<String, Double> candidateScores = Maps.newHashMap();
+		for(SimilarUser user : getKNNForUser(history)) {
+			for(Map.Entry<String, Integer> entry : mTrainHistories.get(user.userId)) {
+				String songName = entry.getKey();
+				if(candidateSongs.contains(songName)) {
+					Double songScore = candidateScores.get(songName);
+					candidateScores.put(songName, ((songScore == null) ? 0.0 : songScore) + 1.0 + user.simScore);
+				}
+			}
+		}
+		
+		PriorityQueue<SongScore> topCandidates = new PriorityQueue<SongScore>(numSongsToRecommend);
+		for(Map.Entry<String, Double> entry : candidateScores.entrySet()) {
+			AlgoUtils.updateTopNSongs(numSongsToRecommend, topCandidates, entry.getKey(), entry.getValue());
+		}
+		return topCandidates;
 	}
+	
 	/**
 	 * Get all the song recommendations for the specified user.
 	 */
-	private List<Song> getSongRecommendations(String user, Map<String, List<Integer>> trainDatasetFeaturesMap, 
-											  DataSet testVisibleDataset)
+	private List<Song> getSongRecommendations(String user, DataSet testVisibleDataset)
 	{
-		List<String> allSongsList = getAllTrainTestSongs(testVisibleDataset);
+		if(getTimeBudgetMicros() > 0) {
+			Deadline deadline = Deadline.after(getTimeBudgetMicros());
+			PriorityQueue<SimilarUser> kNNUsers = getKNNForUserWithin(user, 
+					testVisibleDataset.getUserListeningHistory().get(user), deadline.fraction(0.5));
+			return getSongsBasedOnKNN(kNNUsers, user, deadline);
+		}
 		
-		PriorityQueue<SimilarUser> kNNUsers = getKNNForUser(user, trainDatasetFeaturesMap, 
-				testVisibleDataset, allSongsList);
-		List<Song> recommendations = getSongsBasedOnKNN(kNNUsers);
+		// Sampling every listener compares every train user sharing a song, as the exact mode does
+		if(!isApproximate() && mSampledListenersPerSong < mMaxSongUsers) {
+			PriorityQueue<SimilarUser> kNNUsers = getKNNForUserWithin(user, 
+					testVisibleDataset.getUserListeningHistory().get(user), Deadline.NONE);
+			return getSongsBasedOnKNN(kNNUsers, user, Deadline.NONE);
+		}
+		
+		PriorityQueue<SimilarUser> kNNUsers = getKNNForUser(user, testVisibleDataset);
+		List<Song> recommendations = getSongsBasedOnKNN(kNNUsers, user, Deadline.NONE);
 		return recommendations;
 	}
 	
 	/**
-	 * Get top N most similar songs based on the K nearest neighbors
+	 * Get top N most similar songs based on the K nearest neighbors. Under a deadline, the neighbours
+	 * are walked from the most similar one and the test user is marked as inexact if the deadline
+	 * expires before they are all walked.
 	 */
-	private List<Song> getSongsBasedOnKNN(PriorityQueue<SimilarUser> kNNUsers)
+	private List<Song> getSongsBasedOnKNN(PriorityQueue<SimilarUser> kNNUsers, String testUser, 
+			Deadline deadline)
 	{
 		List<Song> recommendations = Lists.newArrayList();
 		
+		List<SimilarUser> neighbours = Lists.newArrayList(kNNUsers);
+		if(deadline != Deadline.NONE) {
+			Collections.sort(neighbours, Collections.<SimilarUser>reverseOrder());
+		}
+		
 		// Accumulate all possible song recommendations from K-neighbours
 		Map<String, Double> allSongsBwKUsers = Maps.newHashMap();
-		for(SimilarUser user : kNNUsers) {
+		for(int i = 0; i < neighbours.size(); i++) {
+			if(i > 0 && deadline.isExpired()) {
+				mInexactUsers.add(testUser);
+				break;
+			}
+			SimilarUser user = neighbours.get(i);
 			String userName = user.userId;
-			Map<String, Integer> listeningHistory = mTrainDataset.getUserListeningHistory().get(userName);
-			for(Map.Entry<String, Integer> entry : listeningHistory.entrySet()) {
+			for(Map.Entry<String, Integer> entry : mTrainHistories.get(userName)) {
 				String songName = entry.getKey();
 				double songScore = 0.0;
 				if(allSongsBwKUsers.containsKey(songName)) {
@@ -156,9 +646,8 @@ public class KNN implements Algorithm
 			}
 		}
 		
-		Map<String, Song> trainSongMap = mTrainDataset.getSongMap();
 		for(SongScore songScore : topNSongs) {
-			recommendations.add(trainSongMap.get(songScore.getSong()));
+			recommendations.add(mTrainSongMap.get(songScore.getSong()));
 		}
 		
 		return recommendations;
@@ -170,50 +659,95 @@ public class KNN implements Algorithm
 	 * This can be done by calculating the cosine distance between two users where the feature
 	 * vector is the weight of all the songs.
 	 */
-	private PriorityQueue<SimilarUser> getKNNForUser(String user, Map<String, List<Integer>> trainDatasetFeaturesMap, 
-													 DataSet testVisibleDataset, List<String> allSongs)
+	private PriorityQueue<SimilarUser> getKNNForUser(String user, DataSet testVisibleDataset)
+	{
+		return getKNNForUser(testVisibleDataset.getUserListeningHistory().get(user));
+	}
+	
+	private PriorityQueue<SimilarUser> getKNNForUser(Map<String, Integer> history)
 	{
-		List<Integer> testFeature = getFeatureVector(user, allSongs, testVisibleDataset);
+		FeatureVector testFeature = new FeatureVector(history, mSongIndexMap, mDenseSongs);
 		
 		// Maintain a priority queue to ensure that only the top K neighbors are returned for
 		// the test user.
 		PriorityQueue<SimilarUser> kNNUsers = new PriorityQueue<KNN.SimilarUser>(getNumNeighbours());
-		for(Map.Entry<String, List<Integer>> entry : trainDatasetFeaturesMap.entrySet()) {
-			String trainUser = entry.getKey();
-			List<Integer> trainFeature = entry.getValue();
-			Double simScore = getCosineSimilarityScore(testFeature, trainFeature);
-			if(kNNUsers.size() < getNumNeighbours()) {
-				kNNUsers.add(new SimilarUser(trainUser, simScore));
+		SimHashIndex index = getIndex();
+		if(index != null) {
+			for(int trainUser : index.getCandidates(testFeature)) {
+				updateKNNUsers(kNNUsers, trainUser, testFeature);
+			}
+		}
+		else {
+			for(int trainUser = 0; trainUser < mTrainFeatures.length; trainUser++) {
+				updateKNNUsers(kNNUsers, trainUser, testFeature);
 			}
-			else {
-				SimilarUser head = kNNUsers.peek();
-				if(Double.compare(head.simScore, simScore) < 0) {
-					kNNUsers.remove(head);
-					kNNUsers.add(new SimilarUser(trainUser, simScore));
-				}
-			}			
 		}
 		
 		return kNNUsers;
 	}
-
+	
 	/**
-	 * Get the playcount feature vector for each song for this user.
+	 * Return the K nearest neighbors for a listener among the train users sharing songs with it, which
+	 * are found from its least popular songs and compared until the deadline expires. If the deadline
+	 * expires, the test user is marked as inexact. In sampled mode, only the sampled train users of
+	 * every song are compared.
+	 * 
+	 * If fewer than K train users have been compared, the neighbours are completed with the first
+	 * other train users with a similarity of zero, as in batch mode.
 	 */
-	private List<Integer> getFeatureVector(String user, List<String> allSongs, DataSet dataset)
+	private PriorityQueue<SimilarUser> getKNNForUserWithin(String user, Map<String, Integer> history, 
+			Deadline deadline)
 	{
-		List<Integer> songPlaycountFeature = Lists.newArrayList();
-		Map<String, Integer> userListeningHistory = dataset.getUserListeningHistory().get(user);
-		for(String song: allSongs) {
-			if(userListeningHistory.containsKey(song)) {
-				songPlaycountFeature.add(userListeningHistory.get(song));
+		FeatureVector testFeature = new FeatureVector(history, mSongIndexMap, mDenseSongs);
+		PriorityQueue<SimilarUser> kNNUsers = new PriorityQueue<KNN.SimilarUser>(getNumNeighbours());
+		
+		// Songs are indexed from the most popular one, so walk them backwards
+		List<Integer> comparedUsers = Lists.newArrayList();
+		boolean isComplete = true;
+		for(int i = testFeature.songs.length - 1; i >= 0 && isComplete; i--) {
+			int[] songUsers = mSongUsers[testFeature.songs[i]];
+			int numSongUsers = Math.min(songUsers.length, mSampledListenersPerSong);
+			for(int j = 0; j < numSongUsers; j++) {
+				int trainUser = songUsers[j];
+				if(mIsCompared[trainUser]) {
+					continue;
+				}
+				if(!comparedUsers.isEmpty() && deadline.isExpired()) {
+					mInexactUsers.add(user);
+					isComplete = false;
+					break;
+				}
+				mIsCompared[trainUser] = true;
+				comparedUsers.add(trainUser);
+				updateKNNUsers(kNNUsers, trainUser, testFeature);
 			}
-			else {
-				songPlaycountFeature.add(0);
+		}
+		
+		for(int trainUser = 0; trainUser < mTrainUsers.length && kNNUsers.size() < getNumNeighbours(); trainUser++) {
+			if(!mIsCompared[trainUser]) {
+				kNNUsers.add(new SimilarUser(mTrainUsers[trainUser], 0.0));
 			}
 		}
+		for(int trainUser : comparedUsers) {
+			mIsCompared[trainUser] = false;
+		}
 		
-		return songPlaycountFeature;
+		return kNNUsers;
+	}
+	
+	private void updateKNNUsers(PriorityQueue<SimilarUser> kNNUsers, int trainUser, FeatureVector testFeature)
+	{
+		Double simScore = getCosineSimilarityScore(testFeature, mTrainFeatures[trainUser]);
+		if(kNNUsers.size() < getNumNeighbours()) {
+			kNNUsers.add(new SimilarUser(mTrainUsers[trainUser], simScore));
+		}
+		else {
+			SimilarUser head = kNNUsers.peek();
+			if(Double.compare(head.simScore, simScore) < 0) {
+				kNNUsers.remove(head);
+				kNNUsers.add(new SimilarUser(mTrainUsers[trainUser], simScore));
+			}
+		}
 	}
 	
 	/**
@@ -222,20 +756,9 @@ public class KNN implements Algorithm
 	 * @param trainFeature
 	 * @return
 	 */
-	private Double getCosineSimilarityScore(List<Integer> testFeature, List<Integer> trainFeature)
+	private Double getCosineSimilarityScore(FeatureVector testFeature, FeatureVector trainFeature)
 	{
-		int numerator = 0;
-		int magnitudeTestValue = 0;
-		int magintudeTrainValue = 0;
-		for(int i=0; i < testFeature.size(); i++){
-			int testFeatValue = testFeature.get(i);
-			int trainFeatValue = trainFeature.get(i);
-			numerator += testFeatValue*trainFeatValue;
-			magnitudeTestValue += testFeatValue*testFeatValue;
-			magintudeTrainValue += trainFeatValue*trainFeatValue;
-		}
-		
-		return numerator/(double)(Math.sqrt(magnitudeTestValue)*Math.sqrt(magintudeTrainValue));
+		return testFeature.dotProduct(trainFeature)/(testFeature.magnitude*trainFeature.magnitude);
 	}
 	
 	/**
@@ -0,0 +1,241 @@
+package algos;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import models.DataSet;
+import models.Song;
+import models.SongScore;
+
+import org.apache.log4j.Logger;
+
+import utils.AlgoUtils;
+import utils.CoListeningCounter;
+import utils.ScoreAccumulator;
+import utils.Utility;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Answers the users with few songs from lookup tables, and only the other users with an expensive
+ * algorithm. Most users have listened to one or two songs, too few for the similarity of an
+ * expensive algorithm to find much, and end up padded with the popular songs anyway.
+ *
+ * The songs most played by the listeners of every song ("people also played") are found once when
+ * generating the model. A light user is recommended the songs most played along with its songs,
+ * and the most popular songs it has not listened if they are not enough.
+ *
+ * @author excelsior
+ *
+ */
+public class LightUserFastPath implements Algorithm
+{
+	private static Logger LOG = Logger.getLogger(LightUserFastPath.class);
+	
+	// Number of songs to recommend for a user
+	private int mSongsCount = 0;
+	
+	private Algorithm mAlgorithm = null;
+	
+	// Users with at most these many songs are answered from the lookup tables
+	private int maxLightHistoryLength = 2;
+	private int numAlsoPlayedPerSong = 50;
+	
+	// Train songs, and the songs most played along with every song and by how many users
+	private String[] mSongIds = null;
+	private Map<String, Integer> mSongIndexMap = null;
+	private int[][] mAlsoPlayed = null;
+	private int[][] mAlsoPlayedCounts = null;
+	
+	// Most popular train songs, enough to recommend N songs to a light user who listened to some
+	private List<Song> mPopularSongs = null;
+	private DataSet mTrainDataset = null;
+	
+	private ScoreAccumulator mSongScores = null;
+	
+	// Stats of the last recommendations
+	private int mNumLightUsers = 0;
+	private int mNumHeavyUsers = 0;
+	
+	public LightUserFastPath(String algoName, int numSongsToRecommend)
+	{
+		this(Utility.getAlgorithmInstance(algoName, numSongsToRecommend), numSongsToRecommend);
+	}
+	
+	public LightUserFastPath(Algorithm algorithm, int numSongsToRecommend)
+	{
+		this.mAlgorithm = algorithm;
+		this.mSongsCount = numSongsToRecommend;
+	}
+	
+	public int getMaxLightHistoryLength()
+	{
+		return maxLightHistoryLength;
+	}
+	
+	public void setMaxLightHistoryLength(int maxLightHistoryLength)
+	{
+		this.maxLightHistoryLength = maxLightHistoryLength;
+	}
+	
+	public int getNumAlsoPlayedPerSong()
+	{
+		return numAlsoPlayedPerSong;
+	}
+	
+	public void setNumAlsoPlayedPerSong(int numAlsoPlayedPerSong)
+	{
+		this.numAlsoPlayedPerSong = numAlsoPlayedPerSong;
+	}
+	
+	public Algorithm getAlgorithm()
+	{
+		return mAlgorithm;
+	}
+	
+	/**
+	 * Number of users answered from the lookup tables in the last recommendations.
+	 */
+	public int getNumLightUsers()
+	{
+		return mNumLightUsers;
+	}
+	
+	/**
+	 * Builds the lookup tables, and the model of the expensive algorithm.
+	 */
+	public void generateModel(DataSet trainDataset)
+	{
+		mTrainDataset = trainDataset;
+		CoListeningCounter coListeningCounter = new CoListeningCounter(trainDataset);
+		int numSongs = coListeningCounter.getNumSongs();
+		mSongIds = coListeningCounter.getSongIds();
+		mSongIndexMap = coListeningCounter.getSongIndexMap();
+		
+		List<Song> songsByPopularity = Lists.newArrayList(trainDataset.getSongMap().values());
+		Collections.sort(songsByPopularity, new Comparator<Song>() {
+			public int compare(Song a, Song b)
+			{
+				return b.getListenersList().size() - a.getListenersList().size();
+			}
+		});
+		mPopularSongs = Lists.newArrayList(songsByPopularity.subList(0,
+				Math.min(mSongsCount + getMaxLightHistoryLength(), numSongs)));
+		
+		buildAlsoPlayed(coListeningCounter);
+		mSongScores = new ScoreAccumulator(numSongs);
+		
+		mAlgorithm.generateModel(trainDataset);
+	}
+	
+	/**
+	 * Keeps the songs with the most common listeners with every song.
+	 */
+	private void buildAlsoPlayed(final CoListeningCounter coListeningCounter)
+	{
+		int numSongs = coListeningCounter.getNumSongs();
+		mAlsoPlayed = new int[numSongs][];
+		mAlsoPlayedCounts = new int[numSongs][];
+		for(int song = 0; song < numSongs; song++) {
+			int numTouchedSongs = coListeningCounter.count(song, false);
+			Integer[] order = new Integer[numTouchedSongs];
+			for(int i = 0; i < numTouchedSongs; i++) {
+				order[i] = coListeningCounter.getTouchedSongs()[i];
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b)
+				{
+					return coListeningCounter.getJointCount(b) - coListeningCounter.getJointCount(a);
+				}
+			});
+			
+			int numAlsoPlayed = Math.min(getNumAlsoPlayedPerSong(), numTouchedSongs);
+			mAlsoPlayed[song] = new int[numAlsoPlayed];
+			mAlsoPlayedCounts[song] = new int[numAlsoPlayed];
+			for(int i = 0; i < numAlsoPlayed; i++) {
+				mAlsoPlayed[song][i] = order[i];
+				mAlsoPlayedCounts[song][i] = coListeningCounter.getJointCount(order[i]);
+			}
+		}
+	}
+	
+	public Map<String, List<Song>> recommend(DataSet testVisibleDataset)
+	{
+		Map<String, List<Song>> songRecommendationsForUserMap = Maps.newHashMap();
+		Map<String, Map<String, Integer>> heavyUsersHistory = Maps.newHashMap();
+		
+		long lightNanos = 0;
+		mNumLightUsers = 0;
+		for(Map.Entry<String, Map<String, Integer>> entry : testVisibleDataset.getUserListeningHistory().entrySet()) {
+			if(entry.getValue().size() > getMaxLightHistoryLength()) {
+				heavyUsersHistory.put(entry.getKey(), entry.getValue());
+				continue;
+			}
+			
+			long start = System.nanoTime();
+			songRecommendationsForUserMap.put(entry.getKey(), getLightUserRecommendations(entry.getValue()));
+			lightNanos += System.nanoTime() - start;
+			++mNumLightUsers;
+		}
+		
+		long heavyNanos = 0;
+		mNumHeavyUsers = heavyUsersHistory.size();
+		if(!heavyUsersHistory.isEmpty()) {
+			long start = System.nanoTime();
+			songRecommendationsForUserMap.putAll(mAlgorithm.recommend(new DataSet(heavyUsersHistory,
+					testVisibleDataset.getSongMap())));
+			heavyNanos = System.nanoTime() - start;
+		}
+		
+		LOG.info("Answered " + mNumLightUsers + " light users from the lookup tables in " +
+				(mNumLightUsers == 0 ? 0 : lightNanos/1000/mNumLightUsers) + " us per user, and " + mNumHeavyUsers +
+				" users with " + mAlgorithm.getClass().getSimpleName() + " in " +
+				(mNumHeavyUsers == 0 ? 0 : heavyNanos/1000/mNumHeavyUsers) + " us per user");
+		return songRecommendationsForUserMap;
+	}
+	
+	/**
+	 * Recommends the songs most played along with the songs of a light user, weighted by the number
+	 * of users who played them together, then the most popular songs it has not listened.
+	 */
+	private List<Song> getLightUserRecommendations(Map<String, Integer> history)
+	{
+		for(String songId : history.keySet()) {
+			Integer song = mSongIndexMap.get(songId);
+			if(song == null) {
+				continue;
+			}
+			for(int i = 0; i < mAlsoPlayed[song].length; i++) {
+				mSongScores.add(mAlsoPlayed[song][i], mAlsoPlayedCounts[song][i]);
+			}
+		}
+		for(String songId : history.keySet()) {
+			Integer song = mSongIndexMap.get(songId);
+			if(song != null) {
+				mSongScores.exclude(song);
+			}
+		}
+		
+		PriorityQueue<SongScore> topNSongScores = mSongScores.getTopNSongScores(mSongsCount, mSongIds);
+		mSongScores.reset();
+		
+		List<Song> recommendations = AlgoUtils.getTopNSongs(topNSongScores, mTrainDataset);
+		
+		if(recommendations.size() < mSongsCount) {
+			List<Song> unlistenedPopularSongs = Lists.newArrayList();
+			for(Song song : mPopularSongs) {
+				if(!history.containsKey(song.getSongID())) {
+					unlistenedPopularSongs.add(song);
+				}
+			}
+			recommendations = AlgoUtils.checkAndUpdateTopNSongs(recommendations, mSongsCount,
+					unlistenedPopularSongs);
+		}
+		return recommendations;
+	}
+}
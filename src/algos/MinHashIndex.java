@@ -0,0 +1,178 @@
+package algos;
+
+import java.util.Arrays;
+
+/**
+ * MinHash signatures of the listeners of every song, along with a banded locality sensitive hashing
+ * index over them, to estimate the Jaccard similarity between the listeners of two songs and find
+ * the songs likely to be similar to a song.
+ *
+ * Every hash function gives a random order to the users, and the signature of a song keeps, for
+ * every hash function, the smallest hash of its listeners. Two songs get the same value for a hash
+ * function with a probability equal to the Jaccard similarity of their listeners, so the fraction
+ * of equal values estimates it with a fixed-size signature per song. The signatures are split into
+ * bands of a few rows, and the songs whose signatures are equal on all the rows of a band fall in the
+ * same bucket : the candidates for a song are the songs sharing at least one bucket with it.
+ *
+ * @author excelsior
+ *
+ */
+class MinHashIndex
+{
+	private int numSongs;
+	private int numBands;
+	private int numRowsPerBand;
+	private int numHashes;
+	
+	// Seed of every hash function
+	private long[] hashSeeds;
+	
+	// Signature of every song, one row of numHashes after the other
+	private int[] signatures;
+	
+	// For every band, the songs sorted by bucket, and the range of the bucket of every song in them
+	private int[][] bandSongs;
+	private int[][] bandBucketStarts;
+	private int[][] bandBucketEnds;
+	
+	/**
+	 * @param numSongs			Number of songs
+	 * @param numBands			More bands find more similar songs, at the cost of more candidates
+	 * @param numRowsPerBand	More rows per band keep only the most similar songs as candidates
+	 * @param seed				Seed of the hash functions
+	 */
+	public MinHashIndex(int numSongs, int numBands, int numRowsPerBand, long seed)
+	{
+		this.numSongs = numSongs;
+		this.numBands = numBands;
+		this.numRowsPerBand = numRowsPerBand;
+		this.numHashes = numBands*numRowsPerBand;
+		
+		hashSeeds = new long[numHashes];
+		for(int i = 0; i < numHashes; i++) {
+			hashSeeds[i] = mix(seed + i * 0x9E3779B97F4A7C15L);
+		}
+		
+		signatures = new int[numSongs*numHashes];
+		Arrays.fill(signatures, Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * Adds a user to the listeners of its songs. The users can be added in a single streaming pass
+	 * over the listening histories, in any order.
+	 */
+	public void add(int user, int[] songs)
+	{
+		int[] userHashes = new int[numHashes];
+		for(int i = 0; i < numHashes; i++) {
+			userHashes[i] = (int)mix(hashSeeds[i] ^ user);
+		}
+		
+		for(int song : songs) {
+			int offset = song*numHashes;
+			for(int i = 0; i < numHashes; i++) {
+				if(userHashes[i] < signatures[offset + i]) {
+					signatures[offset + i] = userHashes[i];
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Puts every song in its bucket of every band, once all the users have been added.
+	 */
+	public void buildBands()
+	{
+		bandSongs = new int[numBands][numSongs];
+		bandBucketStarts = new int[numBands][numSongs];
+		bandBucketEnds = new int[numBands][numSongs];
+		
+		long[] bucketSongs = new long[numSongs];
+		for(int band = 0; band < numBands; band++) {
+			// Pack the hash of the band in the high bits, so that sorting groups songs by bucket
+			for(int song = 0; song < numSongs; song++) {
+				bucketSongs[song] = ((long)getBandHash(song, band) << 32) | song;
+			}
+			Arrays.sort(bucketSongs);
+			
+			int bucketStart = 0;
+			for(int i = 1; i <= numSongs; i++) {
+				if(i == numSongs || (bucketSongs[i] >>> 32) != (bucketSongs[bucketStart] >>> 32)) {
+					for(int j = bucketStart; j < i; j++) {
+						int song = (int)bucketSongs[j];
+						bandSongs[band][j] = song;
+						bandBucketStarts[band][song] = bucketStart;
+						bandBucketEnds[band][song] = i;
+					}
+					bucketStart = i;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Gets the songs, other than the song itself, which fall in the same bucket as the song in at
+	 * least one band.
+	 *
+	 * @param candidates	Array receiving the candidates
+	 * @param isCandidate	Scratch array of flags, all false, for every song. Left all false.
+	 * @return	Number of candidates
+	 */
+	public int getCandidates(int song, int[] candidates, boolean[] isCandidate)
+	{
+		int numCandidates = 0;
+		isCandidate[song] = true;
+		for(int band = 0; band < numBands; band++) {
+			for(int i = bandBucketStarts[band][song]; i < bandBucketEnds[band][song]; i++) {
+				int candidate = bandSongs[band][i];
+				if(!isCandidate[candidate]) {
+					isCandidate[candidate] = true;
+					candidates[numCandidates++] = candidate;
+				}
+			}
+		}
+		
+		isCandidate[song] = false;
+		for(int i = 0; i < numCandidates; i++) {
+			isCandidate[candidates[i]] = false;
+		}
+		return numCandidates;
+	}
+	
+	/**
+	 * Estimates the Jaccard similarity between the listeners of two songs, as the fraction of their
+	 * signatures which is equal.
+	 */
+	public double getJaccardSimilarity(int songA, int songB)
+	{
+		int offsetA = songA*numHashes;
+		int offsetB = songB*numHashes;
+		int numEqualHashes = 0;
+		for(int i = 0; i < numHashes; i++) {
+			if(signatures[offsetA + i] == signatures[offsetB + i]) {
+				++numEqualHashes;
+			}
+		}
+		return numEqualHashes/(double)numHashes;
+	}
+	
+	private int getBandHash(int song, int band)
+	{
+		long hash = band;
+		int offset = song*numHashes + band*numRowsPerBand;
+		for(int row = 0; row < numRowsPerBand; row++) {
+			hash = mix(hash * 31 + signatures[offset + row]);
+		}
+		return (int)hash;
+	}
+	
+	/**
+	 * Scrambles the bits of a number (SplitMix64 finalizer), used as the hash functions.
+	 */
+	private static long mix(long z)
+	{
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
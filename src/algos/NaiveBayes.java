@@ -1,6 +1,10 @@
 package algos;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
@@ -12,26 +16,146 @@ import com.google.common.collect.Sets;
 
 import models.DataSet;
 import models.Song;
+import models.SongScore;
+import utils.AlgoUtils;
+import utils.CoListeningCounter;
+import utils.Deadline;
+import utils.ScoreAccumulator;
 
 /**
  * Class to represent Naive Bayes Algorithm
  */
-public class NaiveBayes  implements Algorithm
+public class NaiveBayes  implements CandidateScorer, AnytimeAlgorithm
 {
 	int mSongsCount = 0;
 	private DataSet mTrainDataset = null;
+	
+	// Weight of the popularity of the recommended song, in P(listened | recommended)
+	private static final double ALPHA = 0.0;
+	
+	// Train songs indexed by their position in the arrays below
+	private String[] mSongIds = null;
+	private Map<String, Integer> mSongIndexMap = null;
+	
+	// log of the number of listeners of every song
+	private double[] mLogSongListeners = null;
+	
+	// For every song, the songs listened together with it (in increasing order) and the number of
+	// users who listened to both
+	private int[][] mJointSongs = null;
+	private int[][] mJointCounts = null;
+	
+	// log of every possible number of listeners, mLogCounts[n] = log(n)
+	private double[] mLogCounts = null;
+	
+	// If positive, only the songs most listened together with each song of a user are considered
+	// for recommendation, instead of every song listened together with them.
+	private int mMaxCandidatesPerSong = 0;
+	private int[][] mTopJointSongs = null;
+	
+	// Time budget per user in micro seconds, none if zero. The songs of a user are then walked from
+	// the least listened ones, which tell the most about the user, until the budget expires.
+	private long mTimeBudgetMicros = 0;
+	private Set<String> mInexactUsers = Sets.newHashSet();
 
 	public NaiveBayes(int numSongsToRecommend)
 	{
 		super();
 		this.mSongsCount = numSongsToRecommend;
 	}
+	
+	public int getMaxCandidatesPerSong()
+	{
+		return mMaxCandidatesPerSong;
+	}
+	
+	public void setMaxCandidatesPerSong(int maxCandidatesPerSong)
+	{
+		this.mMaxCandidatesPerSong = maxCandidatesPerSong;
+	}
+	
+	public long getTimeBudgetMicros()
+	{
+		return mTimeBudgetMicros;
+	}
+	
+	public void setTimeBudgetMicros(long timeBudgetMicros)
+	{
+		this.mTimeBudgetMicros = timeBudgetMicros;
+	}
+	
+	public Set<String> getInexactUsers()
+	{
+		return mInexactUsers;
+	}
 
+	/**
+	 * Counts the listeners of every song and of every pair of songs listened together in the train
+	 * dataset, so that scoring a user only adds up precomputed log terms.
+	 */
 	public void generateModel(DataSet trainDataset) 
 	{
-		// TODO Auto-generated method stub
 		this.mTrainDataset = trainDataset;
-
+		
+		CoListeningCounter coListeningCounter = new CoListeningCounter(trainDataset);
+		int numSongs = coListeningCounter.getNumSongs();
+		mSongIds = coListeningCounter.getSongIds();
+		mSongIndexMap = coListeningCounter.getSongIndexMap();
+		
+		int maxListeners = 0;
+		mLogSongListeners = new double[numSongs];
+		mJointSongs = new int[numSongs][];
+		mJointCounts = new int[numSongs][];
+		for(int song = 0; song < numSongs; song++) {
+			int numListeners = coListeningCounter.getNumListeners(song);
+			mLogSongListeners[song] = Math.log(numListeners);
+			maxListeners = Math.max(maxListeners, numListeners);
+			
+			// Count the common listeners with every song listened by the listeners of this song
+			int numTouchedSongs = coListeningCounter.count(song, true);
+			mJointSongs[song] = Arrays.copyOf(coListeningCounter.getTouchedSongs(), numTouchedSongs);
+			Arrays.sort(mJointSongs[song]);
+			mJointCounts[song] = new int[numTouchedSongs];
+			for(int i = 0; i < numTouchedSongs; i++) {
+				mJointCounts[song][i] = coListeningCounter.getJointCount(mJointSongs[song][i]);
+			}
+		}
+		
+		mLogCounts = new double[maxListeners + 1];
+		for(int count = 1; count <= maxListeners; count++) {
+			mLogCounts[count] = Math.log(count);
+		}
+		
+		mTopJointSongs = null;
+		if(mMaxCandidatesPerSong > 0) {
+			mTopJointSongs = new int[numSongs][];
+			for(int song = 0; song < numSongs; song++) {
+				mTopJointSongs[song] = getTopJointSongs(song);
+			}
+		}
+	}
+	
+	/**
+	 * Gets the mMaxCandidatesPerSong songs which have the most listeners in common with a song.
+	 */
+	private int[] getTopJointSongs(final int song)
+	{
+		Integer[] positions = new Integer[mJointSongs[song].length];
+		for(int i = 0; i < positions.length; i++) {
+			positions[i] = i;
+		}
+		Arrays.sort(positions, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b)
+			{
+				return mJointCounts[song][b] - mJointCounts[song][a];
+			}
+		});
+		
+		int[] topJointSongs = new int[Math.min(mMaxCandidatesPerSong, positions.length)];
+		for(int i = 0; i < topJointSongs.length; i++) {
+			topJointSongs[i] = mJointSongs[song][positions[i]];
+		}
+		return topJointSongs;
 	}
 
 	public Map<String, List<Song>> recommend(DataSet testVisibleDataset)
@@ -42,71 +166,109 @@ public class NaiveBayes  implements Algorithm
 			return null;
 		}
 		Map<String, List<Song>> songRecommendationsForUserMap = Maps.newHashMap();
+		mInexactUsers = Sets.newHashSet();
+		ScoreAccumulator logProbs = new ScoreAccumulator(mSongIds.length);
 		for(String user : testUsers) 
 		{
-			List<Song> recommendations = getSongRecommendations(user, testVisibleDataset);
+			List<Song> recommendations = getSongRecommendations(user, testVisibleDataset, logProbs);
 			songRecommendationsForUserMap.put(user, recommendations);
 		}
 		return songRecommendationsForUserMap;		
 	}
 
-	private List<Song> getSongRecommendations(String user, DataSet testVisibleDataset) 
+	/**
+	 * Scores the songs not listened by the user as :
+	 * 
+	 * log P = SUM [ log(joint(l, s)) - log(listeners(l)) - alpha * log(listeners(s)) ] for every
+	 * song l listened by the user which has been listened together with s at least once.
+	 * 
+	 * A song which has never been listened together with any song of the user gets a log P of zero
+	 * and is never recommended, so only the songs listened together with the songs of the user are
+	 * scored. Their log P is summed up by walking the joint counts of each song of the user.
+	 * 
+	 * If the time budget expires before all the songs of the user are walked, only the songs walked
+	 * so far add up to the log P, or bring candidates when the candidates per song are limited, and
+	 * the user is marked as inexact.
+	 */
+	private List<Song> getSongRecommendations(String user, DataSet testVisibleDataset, ScoreAccumulator logProbs) 
 	{
-		Set<String> allSongs = Sets.newHashSet();
-		allSongs.addAll(mTrainDataset.getSongMap().keySet());
-		List<String> allSongsList = Lists.newArrayList(allSongs);
-		PriorityQueue<recoSong> pq = new PriorityQueue<recoSong>();
+		Map<String, Integer> userListeningHistory = testVisibleDataset.getUserListeningHistory().get(user);
+		Deadline deadline = Deadline.after(mTimeBudgetMicros);
+		List<Integer> listenedSongs = Lists.newArrayList();
+		for(String listenedSong : userListeningHistory.keySet())
+		{
+			Integer listenedSongIndex = mSongIndexMap.get(listenedSong);
+			if(listenedSongIndex != null)
+			{
+				listenedSongs.add(listenedSongIndex);
+				logProbs.exclude(listenedSongIndex);
+			}
+		}
 		
-		for(String songItem: allSongsList)
+		if(mTimeBudgetMicros > 0)
 		{
-			if(!testVisibleDataset.getUserListeningHistory().get(user).containsKey(songItem))
+			Collections.sort(listenedSongs, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b)
+				{
+					return Double.compare(mLogSongListeners[a], mLogSongListeners[b]);
+				}
+			});
+		}
+		
+		if(mTopJointSongs == null)
+		{
+			for(int songNum = 0; songNum < listenedSongs.size(); songNum++)
 			{
-				Double logProb = 0.0;
-				Double alpha = 0.0;
-				Set<String> listenedSongs = testVisibleDataset.getUserListeningHistory().get(user).keySet();
-				
-				Set<String> tempSet = Sets.newHashSet();
-				for(String listener: mTrainDataset.getSongMap().get(songItem).getListenersList())
+				if(songNum > 0 && deadline.isExpired())
 				{
-					tempSet.add(listener);
+					mInexactUsers.add(user);
+					break;
 				}
-
-				for(String listenedSong: listenedSongs)
+				int listenedSong = listenedSongs.get(songNum);
+				int[] jointSongs = mJointSongs[listenedSong];
+				int[] jointCounts = mJointCounts[listenedSong];
+				for(int i = 0; i < jointSongs.length; i++)
 				{
-					int countListenedSong = 0, countJointListenedAndNotListenedSong = 0, countNotListenedSong=0;
-					if(mTrainDataset.getSongMap().containsKey(listenedSong))
-					{
-						countListenedSong = mTrainDataset.getSongMap().get(listenedSong).getListenersList().size();
-						
-					}
-					if(mTrainDataset.getSongMap().containsKey(songItem))
-					{
-						countNotListenedSong=mTrainDataset.getSongMap().get(songItem).getListenersList().size();						
-					}
-					Set<String> commonUsers = Sets.newHashSet();
-					if(mTrainDataset.getSongMap().containsKey(listenedSong))
-					for(String listener: mTrainDataset.getSongMap().get(listenedSong).getListenersList())
-					{
-						if(tempSet.contains(listener))
-						{
-							commonUsers.add(listener);
-						}
-					}
-					countJointListenedAndNotListenedSong = commonUsers.size();
-					if(countJointListenedAndNotListenedSong>0 && countListenedSong>0 && countNotListenedSong>0)
-					{
-						logProb += Math.log((double)countJointListenedAndNotListenedSong/(double)countListenedSong/Math.pow(countNotListenedSong, alpha));
-					}
-
+					logProbs.add(jointSongs[i], mLogCounts[jointCounts[i]] - mLogSongListeners[listenedSong] 
+							- ALPHA*mLogSongListeners[jointSongs[i]]);
+				}
+			}
+		}
+		else
+		{
+			// Only the top songs listened together with each song of the user are candidates, but
+			// each candidate still gets its exact score.
+			for(int songNum = 0; songNum < listenedSongs.size(); songNum++)
+			{
+				if(songNum > 0 && deadline.isExpired())
+				{
+					mInexactUsers.add(user);
+					break;
 				}
-				if(logProb < 0)
+				for(int songItem : mTopJointSongs[listenedSongs.get(songNum)])
 				{
-					pq.offer(new recoSong(songItem,Math.pow(Math.E,logProb)));
-					while(pq.size()>mSongsCount)
-						pq.poll();
+					if(!logProbs.isExcluded(songItem) && Double.compare(logProbs.getScore(songItem), 0.0) == 0)
+					{
+						logProbs.add(songItem, getLogProb(songItem, listenedSongs));
+					}
 				}
 			}
 		}
+		
+		PriorityQueue<recoSong> pq = new PriorityQueue<recoSong>();
+		for(int i = 0; i < logProbs.getNumTouchedSongs(); i++)
+		{
+			int songItem = logProbs.getTouchedSong(i);
+			double logProb = logProbs.getScore(songItem);
+			if(!logProbs.isExcluded(songItem) && logProb < 0)
+			{
+				pq.offer(new recoSong(mSongIds[songItem],Math.pow(Math.E,logProb)));
+				while(pq.size()>mSongsCount)
+					pq.poll();
+			}
+		}
+		logProbs.reset();
+		
 		List<Song> toReturn = new ArrayList<Song>();
 		while(pq.size()>0)
 		{
@@ -124,8 +286,67 @@ public class NaiveBayes  implements Algorithm
 		
 		return toReturn;
 	}
-
-
+	
+	/**
+	 * Scores only the candidate songs, each with its exact log P as when scoring all the songs.
+	 */
+	public PriorityQueue<SongScore> getTopCandidates(Map<String, Integer> history, Collection<String> candidates,
+			int numSongsToRecommend)
+	{
+		List<Integer> listenedSongs = Lists.newArrayList();
+		for(String listenedSong : history.keySet())
+		{
+			Integer listenedSongIndex = mSongIndexMap.get(listenedSong);
+			if(listenedSongIndex != null)
+			{
+				listenedSongs.add(listenedSongIndex);
+			}
+		}
+		
+		PriorityQueue<SongScore> topCandidates = new PriorityQueue<SongScore>(numSongsToRecommend);
+		for(String candidate : candidates)
+		{
+			Integer songItem = mSongIndexMap.get(candidate);
+			if(songItem == null || history.containsKey(candidate))
+			{
+				continue;
+			}
+			
+			double logProb = getLogProb(songItem, listenedSongs);
+			if(logProb < 0)
+			{
+				AlgoUtils.updateTopNSongs(numSongsToRecommend, topCandidates, candidate, Math.pow(Math.E, logProb));
+			}
+		}
+		return topCandidates;
+	}
+	
+	/**
+	 * Gets the log P of a song for the songs listened by a user.
+	 */
+	private double getLogProb(int songItem, List<Integer> listenedSongs)
+	{
+		double logProb = 0.0;
+		for(int listenedSong : listenedSongs)
+		{
+			int countJointListenedAndNotListenedSong = getJointCount(listenedSong, songItem);
+			if(countJointListenedAndNotListenedSong>0)
+			{
+				logProb += mLogCounts[countJointListenedAndNotListenedSong] - mLogSongListeners[listenedSong] 
+						- ALPHA*mLogSongListeners[songItem];
+			}
+		}
+		return logProb;
+	}
+	
+	/**
+	 * Number of train users who listened to both songs.
+	 */
+	private int getJointCount(int songA, int songB)
+	{
+		int position = Arrays.binarySearch(mJointSongs[songA], songB);
+		return (position < 0) ? 0 : mJointCounts[songA][position];
+	}
 
 }
 class recoSong implements Comparable<recoSong>
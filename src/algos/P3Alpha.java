@@ -0,0 +1,322 @@
+package algos;
+
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import models.DataSet;
+import models.Song;
+import models.SongScore;
+
+import org.apache.log4j.Logger;
+
+import utils.AlgoUtils;
+import utils.ParallelUtils;
+import utils.ScoreAccumulator;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Class to represent a random walk recommender on the bipartite graph of users and songs (P3-alpha,
+ * with the popularity re-weighting of RP3-beta).
+ *
+ * A walk of 3 steps starts from the test user : to one of the songs listened by the user, to one of
+ * the listeners of that song, and to one of the songs of that listener. The score of a song is the
+ * probability of ending the walk on it, with every transition probability raised to the power alpha,
+ * and divided by the number of listeners of the song raised to the power beta so that the popular
+ * songs, which most walks end on, do not fill all the recommendations. An alpha below 1 flattens the
+ * transitions, which works best on the MSD subset, while the re-weighting is off by default since it
+ * lowered the accuracy there.
+ *
+ * The transition probabilities of the songs and of the train users are computed once, along with
+ * their adjacency lists, when generating the model, and again when alpha or beta is changed. The walk from a test user is then computed
+ * exactly in two sparse steps : first the probabilities of reaching every train user, then of the
+ * songs of those users. In the Monte-Carlo mode, a fixed number of random walks is drawn per test
+ * user instead, so that the cost of recommending is bounded whatever the degrees in the graph.
+ *
+ * @author excelsior
+ *
+ */
+public class P3Alpha implements Algorithm
+{
+	private static Logger LOG = Logger.getLogger(P3Alpha.class);
+	
+	// Number of songs to recommend for a user
+	private int mSongsCount = 0;
+	
+	private DataSet mTrainDataset = null;
+	
+	private static final long WALKS_SEED = 0x93AL;
+	
+	// Number of test users recommended by a task at a time
+	private static final int CHUNK_SIZE = 256;
+	
+	private double alpha = 0.3;
+	private double beta = 0.0;
+	private boolean monteCarlo = false;
+	private int numWalks = 10000;
+	private int numThreads = Runtime.getRuntime().availableProcessors();
+	
+	// Train songs and users, indexed by their position in the adjacency lists
+	private String[] mSongIds = null;
+	private Map<String, Integer> mSongIndexMap = null;
+	
+	// Listeners of every song and songs of every train user
+	private int[][] mSongUsers = null;
+	private int[][] mUserSongs = null;
+	
+	// Transition probability, raised to the power alpha, from every song to one of its listeners and
+	// from every user to one of its songs
+	private double[] mSongTransitions = null;
+	private double[] mUserTransitions = null;
+	
+	// Popularity weight of every song
+	private double[] mSongWeights = null;
+	
+	public P3Alpha(int numSongsToRecommend)
+	{
+		this.mSongsCount = numSongsToRecommend;
+	}
+	
+	public double getAlpha()
+	{
+		return alpha;
+	}
+	
+	/**
+	 * Sets alpha, computing the transition probabilities again if the model has been generated.
+	 */
+	public void setAlpha(double alpha)
+	{
+		boolean isChanged = Double.compare(alpha, this.alpha) != 0;
+		this.alpha = alpha;
+		if(isChanged && mUserSongs != null) {
+			buildTransitions();
+		}
+	}
+	
+	public double getBeta()
+	{
+		return beta;
+	}
+	
+	/**
+	 * Sets beta, computing the popularity weights again if the model has been generated.
+	 */
+	public void setBeta(double beta)
+	{
+		boolean isChanged = Double.compare(beta, this.beta) != 0;
+		this.beta = beta;
+		if(isChanged && mUserSongs != null) {
+			buildTransitions();
+		}
+	}
+	
+	public boolean isMonteCarlo()
+	{
+		return monteCarlo;
+	}
+	
+	public void setMonteCarlo(boolean monteCarlo)
+	{
+		this.monteCarlo = monteCarlo;
+	}
+	
+	public int getNumWalks()
+	{
+		return numWalks;
+	}
+	
+	public void setNumWalks(int numWalks)
+	{
+		this.numWalks = numWalks;
+	}
+	
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+	
+	public void setNumThreads(int numThreads)
+	{
+		this.numThreads = numThreads;
+	}
+	
+	/**
+	 * Builds the adjacency lists of the graph and the transition probabilities of every node.
+	 */
+	public void generateModel(DataSet trainDataset)
+	{
+		this.mTrainDataset = trainDataset;
+		
+		mSongIds = trainDataset.getSongMap().keySet().toArray(new String[trainDataset.getSongMap().size()]);
+		mSongIndexMap = Maps.newHashMap();
+		for(int i = 0; i < mSongIds.length; i++) {
+			mSongIndexMap.put(mSongIds[i], i);
+		}
+		
+		Map<String, Map<String, Integer>> trainListeningHistory = trainDataset.getUserListeningHistory();
+		int numUsers = trainListeningHistory.size();
+		mUserSongs = new int[numUsers][];
+		int[] numSongUsers = new int[mSongIds.length];
+		int user = 0;
+		for(Map<String, Integer> history : trainListeningHistory.values()) {
+			mUserSongs[user] = new int[history.size()];
+			int i = 0;
+			for(String songId : history.keySet()) {
+				mUserSongs[user][i] = mSongIndexMap.get(songId);
+				++numSongUsers[mUserSongs[user][i]];
+				++i;
+			}
+			++user;
+		}
+		
+		mSongUsers = new int[mSongIds.length][];
+		for(int song = 0; song < mSongIds.length; song++) {
+			mSongUsers[song] = new int[numSongUsers[song]];
+			numSongUsers[song] = 0;
+		}
+		for(user = 0; user < numUsers; user++) {
+			for(int song : mUserSongs[user]) {
+				mSongUsers[song][numSongUsers[song]++] = user;
+			}
+		}
+		
+		buildTransitions();
+		LOG.info("Built graph of " + numUsers + " users and " + mSongIds.length + " songs.");
+	}
+	
+	/**
+	 * Computes the transition probabilities raised to the power alpha and the popularity weights of
+	 * the songs, from the degrees of the nodes.
+	 */
+	private void buildTransitions()
+	{
+		mUserTransitions = new double[mUserSongs.length];
+		for(int user = 0; user < mUserSongs.length; user++) {
+			mUserTransitions[user] = Math.pow(1.0/mUserSongs[user].length, alpha);
+		}
+		
+		mSongTransitions = new double[mSongUsers.length];
+		mSongWeights = new double[mSongUsers.length];
+		for(int song = 0; song < mSongUsers.length; song++) {
+			mSongTransitions[song] = Math.pow(1.0/mSongUsers[song].length, alpha);
+			mSongWeights[song] = Math.pow(mSongUsers[song].length, -beta);
+		}
+	}
+	
+	public Map<String, List<Song>> recommend(final DataSet testVisibleDataset)
+	{
+		final List<String> testVisibleUsers = testVisibleDataset.getListOfUsers();
+		final List<Song> popularSongs = mTrainDataset.getOverallNPopularSongs(mSongsCount);
+		final List<List<Song>> recommendations = Lists.newArrayList();
+		for(int i = 0; i < testVisibleUsers.size(); i++) {
+			recommendations.add(null);
+		}
+		
+		ParallelUtils.runInChunks(testVisibleUsers.size(), CHUNK_SIZE, numThreads, new ParallelUtils.RangeTask() {
+			public void run(int start, int end)
+			{
+				ScoreAccumulator userScores = new ScoreAccumulator(mUserSongs.length);
+				ScoreAccumulator songScores = new ScoreAccumulator(mSongIds.length);
+				for(int user = start; user < end; user++) {
+					String userId = testVisibleUsers.get(user);
+					List<Song> userRecommendations = getSongRecommendations(userId,
+							testVisibleDataset.getUserListeningHistory().get(userId), userScores, songScores);
+					recommendations.set(user, AlgoUtils.checkAndUpdateTopNSongs(userRecommendations, mSongsCount,
+							popularSongs));
+				}
+			}
+		});
+		
+		Map<String, List<Song>> songRecommendationsForUserMap = Maps.newHashMap();
+		for(int user = 0; user < testVisibleUsers.size(); user++) {
+			songRecommendationsForUserMap.put(testVisibleUsers.get(user), recommendations.get(user));
+		}
+		return songRecommendationsForUserMap;
+	}
+	
+	/**
+	 * Scores the songs by the walks from the test user, and gets the top N songs not listened yet.
+	 *
+	 * @param userScores	Scratch accumulator of the train users
+	 * @param songScores	Scratch accumulator of the songs
+	 */
+	private List<Song> getSongRecommendations(String userId, Map<String, Integer> history,
+			ScoreAccumulator userScores, ScoreAccumulator songScores)
+	{
+		List<Integer> testUserSongs = Lists.newArrayList();
+		for(String songId : history.keySet()) {
+			Integer song = mSongIndexMap.get(songId);
+			if(song != null) {
+				testUserSongs.add(song);
+			}
+		}
+		if(testUserSongs.isEmpty()) {
+			return Lists.newArrayList();
+		}
+		
+		if(isMonteCarlo()) {
+			walkRandomly(userId, testUserSongs, songScores);
+		}
+		else {
+			walkExactly(testUserSongs, userScores, songScores);
+		}
+		
+		// Only recommend songs which have not been listened to by the test user
+		for(int song : testUserSongs) {
+			songScores.exclude(song);
+		}
+		PriorityQueue<SongScore> topNSongScores = songScores.getTopNSongScores(mSongsCount, mSongIds);
+		songScores.reset();
+		
+		return AlgoUtils.getTopNSongs(topNSongScores, mTrainDataset);
+	}
+	
+	/**
+	 * Computes the probability of ending on every song : the probabilities of reaching the train users
+	 * are summed up first, so that the songs of every user reached are only walked once.
+	 */
+	private void walkExactly(List<Integer> testUserSongs, ScoreAccumulator userScores, ScoreAccumulator songScores)
+	{
+		double firstTransition = Math.pow(1.0/testUserSongs.size(), alpha);
+		for(int song : testUserSongs) {
+			double probability = firstTransition*mSongTransitions[song];
+			for(int user : mSongUsers[song]) {
+				userScores.add(user, probability);
+			}
+		}
+		
+		for(int i = 0; i < userScores.getNumTouchedSongs(); i++) {
+			int user = userScores.getTouchedSong(i);
+			double probability = userScores.getScore(user)*mUserTransitions[user];
+			for(int song : mUserSongs[user]) {
+				songScores.add(song, probability*mSongWeights[song]);
+			}
+		}
+		userScores.reset();
+	}
+	
+	/**
+	 * Estimates the probability of ending on every song from a fixed number of random walks. Every
+	 * transition is drawn uniformly, so a walk is weighted by its probability raised to the power
+	 * alpha - 1, to estimate the probabilities raised to the power alpha.
+	 */
+	private void walkRandomly(String userId, List<Integer> testUserSongs, ScoreAccumulator songScores)
+	{
+		Random random = new Random(WALKS_SEED ^ userId.hashCode());
+		double firstTransition = 1.0/testUserSongs.size();
+		for(int walk = 0; walk < numWalks; walk++) {
+			int firstSong = testUserSongs.get(random.nextInt(testUserSongs.size()));
+			int[] users = mSongUsers[firstSong];
+			int user = users[random.nextInt(users.length)];
+			int[] songs = mUserSongs[user];
+			int song = songs[random.nextInt(songs.length)];
+			
+			double probability = firstTransition/users.length/songs.length;
+			songScores.add(song, Math.pow(probability, alpha - 1.0)*mSongWeights[song]/numWalks);
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package algos;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import models.DataSet;
+import models.Song;
+
+import org.apache.log4j.Logger;
+
+import utils.Utility;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Chooses the size of the sample of train data which an algorithm scores against, such as the
+ * number of listeners sampled per song or the number of train users sampled, so that its top N
+ * songs overlap the exact ones within a target error.
+ *
+ * The exact and sampled recommendations are compared on a random sample of the test users, for
+ * sample sizes doubling from a minimum size, and the smallest size whose overlap is above
+ * 1 - maxOverlapError with 95% confidence is chosen. The overlap measured on the calibration users
+ * at that size is kept as the estimate of the overlap on all the test users.
+ *
+ * @author excelsior
+ *
+ */
+abstract class SampleSizeCalibrator
+{
+	private static Logger LOG = Logger.getLogger(SampleSizeCalibrator.class);
+	
+	// One-sided 95% quantile of the normal distribution
+	private static final double CONFIDENCE_Z = 1.645;
+	
+	private double maxOverlapError;
+	private int numCalibrationUsers;
+	private long seed;
+	
+	private double estimatedOverlap = 1.0;
+	
+	public SampleSizeCalibrator(double maxOverlapError, int numCalibrationUsers, long seed)
+	{
+		this.maxOverlapError = maxOverlapError;
+		this.numCalibrationUsers = numCalibrationUsers;
+		this.seed = seed;
+	}
+	
+	/**
+	 * Recommends songs to the users of the dataset, scoring against a sample of the given size.
+	 */
+	protected abstract Map<String, List<Song>> recommend(DataSet calibrationDataset, int sampleSize);
+	
+	/**
+	 * Mean overlap of the sampled top N songs with the exact ones on the calibration users, at the
+	 * last chosen sample size.
+	 */
+	public double getEstimatedOverlap()
+	{
+		return estimatedOverlap;
+	}
+	
+	/**
+	 * Gets the smallest sample size, doubling from minSampleSize, which meets the target error on
+	 * the calibration users. Scoring against maxSampleSize is exact.
+	 */
+	public int getSampleSize(DataSet testVisibleDataset, int minSampleSize, int maxSampleSize)
+	{
+		DataSet calibrationDataset = getCalibrationDataset(testVisibleDataset);
+		Map<String, List<Song>> exactRecommendations = recommend(calibrationDataset, maxSampleSize);
+		
+		for(int sampleSize = minSampleSize; sampleSize < maxSampleSize; sampleSize *= 2) {
+			Map<String, List<Song>> sampledRecommendations = recommend(calibrationDataset, sampleSize);
+			
+			double sumOverlap = 0.0;
+			double sumSquaredOverlap = 0.0;
+			for(Map.Entry<String, List<Song>> entry : exactRecommendations.entrySet()) {
+				double overlap = Utility.getTopNOverlap(entry.getValue(), sampledRecommendations.get(entry.getKey()));
+				sumOverlap += overlap;
+				sumSquaredOverlap += overlap*overlap;
+			}
+			
+			int numUsers = exactRecommendations.size();
+			double meanOverlap = sumOverlap/numUsers;
+			double variance = Math.max(sumSquaredOverlap/numUsers - meanOverlap*meanOverlap, 0.0);
+			double lowerBound = meanOverlap - CONFIDENCE_Z*Math.sqrt(variance/numUsers);
+			LOG.debug("Sample size " + sampleSize + " : overlap = " + meanOverlap + ", lower bound = " + lowerBound);
+			
+			if(lowerBound >= 1.0 - maxOverlapError) {
+				estimatedOverlap = meanOverlap;
+				return sampleSize;
+			}
+		}
+		
+		estimatedOverlap = 1.0;
+		return maxSampleSize;
+	}
+	
+	/**
+	 * Draws the calibration users from the test users.
+	 */
+	private DataSet getCalibrationDataset(DataSet testVisibleDataset)
+	{
+		List<String> users = testVisibleDataset.getListOfUsers();
+		Collections.sort(users);
+		Collections.shuffle(users, new Random(seed));
+		
+		Map<String, Map<String, Integer>> calibrationHistory = Maps.newHashMap();
+		for(String user : users.subList(0, Math.min(numCalibrationUsers, users.size()))) {
+			calibrationHistory.put(user, testVisibleDataset.getUserListeningHistory().get(user));
+		}
+		return new DataSet(calibrationHistory, testVisibleDataset.getSongMap());
+	}
+}
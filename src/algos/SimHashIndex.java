@@ -0,0 +1,132 @@
+package algos;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Locality sensitive hashing index for the cosine similarity between feature vectors, based on
+ * random hyperplanes (SimHash).
+ * 
+ * Each of the hash tables projects a vector on a few random hyperplanes and keeps one bit per
+ * hyperplane, telling on which side of the hyperplane the vector lies. Two vectors get the same bit
+ * with a probability of 1 - angle/PI, so vectors with a high cosine similarity tend to fall in the
+ * same bucket of at least one table. The candidates for a query are the vectors in the buckets of
+ * the query, instead of every indexed vector.
+ * 
+ * @author excelsior
+ *
+ */
+class SimHashIndex
+{
+	private int numHashTables;
+	private int numHashBits;
+	
+	// Random hyperplanes : bit b of songHyperplanes[song][table] is the sign of the hyperplane b
+	// of the table along the song.
+	private long[][] songHyperplanes;
+	
+	// For each table, map of the hash of a bucket to the users in the bucket
+	private List<Map<Integer, List<Integer>>> hashTables = Lists.newArrayList();
+	
+	/**
+	 * @param numSongs			Number of indexed songs (dimensions of the feature vectors)
+	 * @param numHashTables		More tables find more true neighbours, at the cost of more candidates
+	 * @param numHashBits		More bits per table make the buckets smaller, at most 31
+	 * @param seed				Seed of the random hyperplanes
+	 */
+	public SimHashIndex(int numSongs, int numHashTables, int numHashBits, long seed)
+	{
+		this.numHashTables = numHashTables;
+		this.numHashBits = numHashBits;
+		
+		songHyperplanes = new long[numSongs][numHashTables];
+		for(int song = 0; song < numSongs; song++) {
+			for(int table = 0; table < numHashTables; table++) {
+				songHyperplanes[song][table] = mix(seed + song * 0x9E3779B97F4A7C15L + table);
+			}
+		}
+		
+		for(int table = 0; table < numHashTables; table++) {
+			Map<Integer, List<Integer>> hashTable = Maps.newHashMap();
+			hashTables.add(hashTable);
+		}
+	}
+	
+	/**
+	 * Adds a user to the bucket of its feature vector in every table.
+	 */
+	public void add(int user, FeatureVector feature)
+	{
+		for(int table = 0; table < numHashTables; table++) {
+			int hash = getHash(feature, table);
+			Map<Integer, List<Integer>> hashTable = hashTables.get(table);
+			List<Integer> bucket = hashTable.get(hash);
+			if(bucket == null) {
+				bucket = Lists.newArrayList();
+				hashTable.put(hash, bucket);
+			}
+			bucket.add(user);
+		}
+	}
+	
+	/**
+	 * Gets the users which fall in the same bucket as the feature vector in at least one table.
+	 */
+	public Set<Integer> getCandidates(FeatureVector feature)
+	{
+		Set<Integer> candidates = Sets.newHashSet();
+		for(int table = 0; table < numHashTables; table++) {
+			List<Integer> bucket = hashTables.get(table).get(getHash(feature, table));
+			if(bucket != null) {
+				candidates.addAll(bucket);
+			}
+		}
+		
+		return candidates;
+	}
+	
+	/**
+	 * Projects the feature vector on the hyperplanes of a table, and keeps the sign of each
+	 * projection as one bit of the hash.
+	 */
+	private int getHash(FeatureVector feature, int table)
+	{
+		long[] projections = new long[numHashBits];
+		for(int i = 0; i < feature.songs.length; i++) {
+			long hyperplanes = songHyperplanes[feature.songs[i]][table];
+			int playcount = feature.playcounts[i];
+			for(int bit = 0; bit < numHashBits; bit++) {
+				if(((hyperplanes >>> bit) & 1L) == 1L) {
+					projections[bit] += playcount;
+				}
+				else {
+					projections[bit] -= playcount;
+				}
+			}
+		}
+		
+		int hash = 0;
+		for(int bit = 0; bit < numHashBits; bit++) {
+			if(projections[bit] >= 0) {
+				hash |= (1 << bit);
+			}
+		}
+		
+		return hash;
+	}
+	
+	/**
+	 * Scrambles the bits of a number (SplitMix64 finalizer), used to draw the random hyperplanes.
+	 */
+	private static long mix(long z)
+	{
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
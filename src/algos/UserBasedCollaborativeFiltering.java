@@ -1,8 +1,13 @@
 package algos;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
+import java.util.Random;
 import java.util.Set;
 
 import models.DataSet;
@@ -12,12 +17,12 @@ import models.SongScore;
 import org.apache.log4j.Logger;
 
 import utils.AlgoUtils;
+import utils.Deadline;
+import utils.ScoreAccumulator;
 
-import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
-import com.google.common.collect.Table;
 
 /**
  * Implements memory-based user-based collaborative filtering for making best recommendations.
@@ -26,17 +31,31 @@ import com.google.common.collect.Table;
  * songs in the future too. Thus, if we know a user Y is similar to user X, we can recommend Y's 
  * listened songs to user X.
  * 
+ * With a time budget, the songs of a test user are walked from the least popular ones, which tell
+ * the most about its taste, to find its similar users within half of the budget, and the similar
+ * users then add their weights from the most similar ones until the budget expires.
+ * 
+ * In sampled mode, the similar users are only found through a random sample of the listeners of
+ * every song. The sample size is chosen on a few test users, as the smallest one for which the top
+ * N songs overlap the exact ones within maxOverlapError, see {@link SampleSizeCalibrator}.
+ * 
  * @author excelsior
  * 
  *
  */
-public class UserBasedCollaborativeFiltering implements Algorithm
+public class UserBasedCollaborativeFiltering implements CandidateScorer, AnytimeAlgorithm
 {
 	private Logger LOG = Logger.getLogger(UserBasedCollaborativeFiltering.class);
 	
 	private int numSongsToRecommend = 0;
 	private DataSet trainDataset = null;
 	
+	// Train songs and train users indexed by their position in the arrays below
+	private String[] songIds = null;
+	private Map<String, Integer> songIndexMap = null;
+	private int[][] trainUserSongs = null;
+	private int[][] songListeners = null;
+	
 	// Assigns weights to each user based on the number of songs he/she has listened. A user who
 	// listens to every other song should not add much to the recommendation score.
 	private double weightCoefficient = 0.8;
@@ -44,6 +63,30 @@ public class UserBasedCollaborativeFiltering implements Algorithm
 	// Maximizes the impact of high weights and minimizes the impact of low weights;
 	private double normalizationCoefficient = 8.0;
 	
+	// Stops scoring a test user as soon as the remaining similar users cannot change its top N songs
+	private boolean earlyTermination = false;
+	
+	// Time budget per test user in micro seconds, none if zero
+	private long timeBudgetMicros = 0;
+	private Set<String> inexactUsers = Sets.newHashSet();
+	
+	// Sampled mode : listeners of every song in random order, of which only the first ones are walked
+	private static final long SAMPLE_SEED = 0x5EEDL;
+	private static final int NUM_CALIBRATION_USERS = 100;
+	private boolean sampled = false;
+	private int listenersPerSong = 0;
+	private double maxOverlapError = 0.1;
+	private int[][] sampledSongListeners = null;
+	private int maxSongListeners = 0;
+	private int sampledListenersPerSong = Integer.MAX_VALUE;
+	private double estimatedOverlap = 1.0;
+	
+	// Scratch arrays of the candidate scoring, allocated on its first use after generating the model
+	private double[] candidateDegreeWeights = null;
+	private double[] candidateUserWeights = null;
+	private int[] candidateCommonSongs = null;
+	private int[] candidateTouchedUsers = null;
+	
 	public UserBasedCollaborativeFiltering(int numSongsToRecommend)
 	{
 		this.numSongsToRecommend = numSongsToRecommend;
@@ -62,6 +105,7 @@ public class UserBasedCollaborativeFiltering implements Algorithm
 	public void setWeightCoefficient(double weightCoefficient)
 	{
 		this.weightCoefficient = weightCoefficient;
+		this.candidateDegreeWeights = null;
 	}
 	
 	public double getNormalizationCoefficient()
@@ -74,8 +118,145 @@ public class UserBasedCollaborativeFiltering implements Algorithm
 		this.normalizationCoefficient = normalizationCoefficient;
 	}
 	
+	public boolean isEarlyTermination()
+	{
+		return earlyTermination;
+	}
+	
+	public void setEarlyTermination(boolean earlyTermination)
+	{
+		this.earlyTermination = earlyTermination;
+	}
+	
+	public long getTimeBudgetMicros()
+	{
+		return timeBudgetMicros;
+	}
+	
+	public void setTimeBudgetMicros(long timeBudgetMicros)
+	{
+		this.timeBudgetMicros = timeBudgetMicros;
+	}
+	
+	public Set<String> getInexactUsers()
+	{
+		return inexactUsers;
+	}
+	
+	public boolean isSampled()
+	{
+		return sampled;
+	}
+	
+	public void setSampled(boolean sampled)
+	{
+		this.sampled = sampled;
+	}
+	
+	/**
+	 * Number of listeners sampled per song, chosen when recommending if zero.
+	 */
+	public int getListenersPerSong()
+	{
+		return listenersPerSong;
+	}
+	
+	public void setListenersPerSong(int listenersPerSong)
+	{
+		this.listenersPerSong = listenersPerSong;
+	}
+	
+	public double getMaxOverlapError()
+	{
+		return maxOverlapError;
+	}
+	
+	public void setMaxOverlapError(double maxOverlapError)
+	{
+		this.maxOverlapError = maxOverlapError;
+	}
+	
+	/**
+	 * Number of listeners per song sampled in the last recommendations.
+	 */
+	public int getSampledListenersPerSong()
+	{
+		return sampledListenersPerSong;
+	}
+	
+	/**
+	 * Estimated overlap of the top N songs with the exact ones in the last recommendations, one if
+	 * the sample size was not chosen automatically.
+	 */
+	public double getEstimatedOverlap()
+	{
+		return estimatedOverlap;
+	}
+	
+	/**
+	 * Indexes the songs and users of the train dataset, so that the listening history can be walked
+	 * in both directions over primitive arrays while recommending.
+	 */
 	public void generateModel(DataSet trainSet) {
 		this.trainDataset = trainSet;
+		this.candidateDegreeWeights = null;
+		
+		Map<String, Song> trainSongMap = trainSet.getSongMap();
+		int numSongs = trainSongMap.size();
+		songIds = trainSongMap.keySet().toArray(new String[numSongs]);
+		songIndexMap = Maps.newHashMapWithExpectedSize(numSongs);
+		for(int i = 0; i < numSongs; i++) {
+			songIndexMap.put(songIds[i], i);
+		}
+		
+		Map<String, Map<String, Integer>> trainListeningHistory = trainSet.getUserListeningHistory();
+		Map<String, Integer> userIndexMap = Maps.newHashMapWithExpectedSize(trainListeningHistory.size());
+		trainUserSongs = new int[trainListeningHistory.size()][];
+		for(Map.Entry<String, Map<String, Integer>> entry : trainListeningHistory.entrySet()) {
+			int user = userIndexMap.size();
+			userIndexMap.put(entry.getKey(), user);
+			
+			trainUserSongs[user] = new int[entry.getValue().size()];
+			int numUserSongs = 0;
+			for(String song : entry.getValue().keySet()) {
+				trainUserSongs[user][numUserSongs++] = songIndexMap.get(song);
+			}
+		}
+		
+		songListeners = new int[numSongs][];
+		for(int song = 0; song < numSongs; song++) {
+			List<String> listeners = trainSongMap.get(songIds[song]).getListenersList();
+			songListeners[song] = new int[listeners.size()];
+			for(int i = 0; i < listeners.size(); i++) {
+				songListeners[song][i] = userIndexMap.get(listeners.get(i));
+			}
+		}
+		
+		maxSongListeners = 0;
+		for(int song = 0; song < numSongs; song++) {
+			maxSongListeners = Math.max(maxSongListeners, songListeners[song].length);
+		}
+		
+		// Built on the first sampled recommendations, so that sampling can be turned on after training
+		sampledSongListeners = null;
+	}
+	
+	/**
+	 * Shuffles the listeners of every song, so that their first listeners are a uniform sample.
+	 */
+	private void buildSampledSongListeners()
+	{
+		Random random = new Random(SAMPLE_SEED);
+		sampledSongListeners = new int[songListeners.length][];
+		for(int song = 0; song < songListeners.length; song++) {
+			sampledSongListeners[song] = songListeners[song].clone();
+			for(int i = sampledSongListeners[song].length - 1; i > 0; i--) {
+				int j = random.nextInt(i + 1);
+				int listener = sampledSongListeners[song][i];
+				sampledSongListeners[song][i] = sampledSongListeners[song][j];
+				sampledSongListeners[song][j] = listener;
+			}
+		}
 	}
 
 	public Map<String, List<Song>> recommend(DataSet testVisibleDataset) {
@@ -84,154 +265,411 @@ public class UserBasedCollaborativeFiltering implements Algorithm
 		LOG.info("TRAIN users : " + trainDataset.getListOfUsers().size() + 
 				", TEST users : " + testVisibleDataset.getListOfUsers().size());
 		
+		sampledListenersPerSong = Integer.MAX_VALUE;
+		estimatedOverlap = 1.0;
+		if(isSampled()) {
+			if(sampledSongListeners == null) {
+				buildSampledSongListeners();
+			}
+			sampledListenersPerSong = (getListenersPerSong() > 0) ? getListenersPerSong() : 
+				getCalibratedListenersPerSong(testVisibleDataset);
+			LOG.info("Sampling " + sampledListenersPerSong + " listeners per song, estimated top N overlap : " + 
+					estimatedOverlap);
+		}
+		
+		return getRecommendations(testVisibleDataset);
+	}
+	
+	/**
+	 * Chooses the number of listeners sampled per song on a few test users.
+	 */
+	private int getCalibratedListenersPerSong(DataSet testVisibleDataset)
+	{
+		SampleSizeCalibrator calibrator = new SampleSizeCalibrator(getMaxOverlapError(), NUM_CALIBRATION_USERS, 
+				SAMPLE_SEED) {
+			protected Map<String, List<Song>> recommend(DataSet calibrationDataset, int sampleSize)
+			{
+				sampledListenersPerSong = sampleSize;
+				return getRecommendations(calibrationDataset);
+			}
+		};
+		int calibratedListenersPerSong = calibrator.getSampleSize(testVisibleDataset, 8, maxSongListeners);
+		estimatedOverlap = calibrator.getEstimatedOverlap();
+		return calibratedListenersPerSong;
+	}
+	
+	private Map<String, List<Song>> getRecommendations(DataSet testVisibleDataset)
+	{
 		Map<String, List<Song>> recommendations = Maps.newHashMap();
+		inexactUsers = Sets.newHashSet();
+		
+		// The train user part of the similarity score only depends on the train user, so compute
+		// it once instead of for every test user.
+		double[] trainUserDegreeWeights = new double[trainUserSongs.length];
+		for(int trainUser = 0; trainUser < trainUserSongs.length; trainUser++) {
+			trainUserDegreeWeights[trainUser] = Math.pow(trainUserSongs[trainUser].length, 1-getWeightCoefficient());
+		}
+		
+		// Scratch arrays reused across test users
+		ScoreAccumulator songWeights = new ScoreAccumulator(songIds.length);
+		int[] commonSongs = new int[trainUserSongs.length];
+		int[] touchedUsers = new int[trainUserSongs.length];
 		
-		Table<String, String, Double> userSimMatrix = getUserSimilarityMatrix(testVisibleDataset);
-		Set<String> allTrainSongs = trainDataset.getSongMap().keySet();
+		// Work done and skipped through early termination, counted in song postings
+		long totalPostings = 0;
+		long skippedPostings = 0;
 		
-		for(String testUser : testVisibleDataset.getListOfUsers()) {
-			Set<String> allTestUserSongs = Sets.newHashSet(testVisibleDataset.getSongsForUser(testUser));
+		for(Map.Entry<String, Map<String, Integer>> entry : testVisibleDataset.getUserListeningHistory().entrySet()) {
+			String testUser = entry.getKey();
+			Map<String, Integer> allTestUserSongs = entry.getValue();
+			Deadline deadline = Deadline.after(getTimeBudgetMicros());
 			
-			// Get the list of all the songs which the test user has currently not listened.
-			Set<String> songsToEvaluate = AlgoUtils.getUnexploredSongs(allTestUserSongs, allTrainSongs); 
+			// The songs which the test user has already listened are not recommended again.
+			List<Integer> testUserSongs = Lists.newArrayList();
+			for(String song : allTestUserSongs.keySet()) {
+				Integer songIndex = songIndexMap.get(song);
+				if(songIndex != null) {
+					testUserSongs.add(songIndex);
+					songWeights.exclude(songIndex);
+				}
+			}
 
 			/**
 			 * If test user has listened to all the songs by train users, just recommend the top
 			 * N overall popular songs.
 			 */
-			if(songsToEvaluate.isEmpty()) {
+			if(testUserSongs.size() == songIds.length) {
+				songWeights.reset();
 				recommendations.put(testUser, trainDataset.getOverallNPopularSongs(numSongsToRecommend));
 				LOG.info("No songs to evaluate for test user");
 				continue;
 			}
 			
-			List<Song> topNSongsList = Lists.newArrayList();
-			PriorityQueue<SongScore> topNSongScores = new PriorityQueue<SongScore>(numSongsToRecommend);
-			for(String song : songsToEvaluate) {
-				// Which training set users have listened to this song ? Only these users would
-				// contribute to the overall score of this song
-				List<String> trainUsersForSong = trainDataset.getUsersForSong(song);
-				double songWeight = getSongWeight(testUser, trainUsersForSong, userSimMatrix);
-				AlgoUtils.updateTopNSongs(numSongsToRecommend, topNSongScores, song, songWeight);
+			/**
+			 * Only the train users who share a song with the test user have a non-zero similarity,
+			 * and only their songs can get a non-zero weight. Each of them adds its normalized
+			 * similarity score to the weight of every song it has listened.
+			 */
+			if(getTimeBudgetMicros() > 0) {
+				sortByIncreasingListeners(testUserSongs);
+			}
+			SimilarUsers similarUsers = getSimilarUsers(testUserSongs, allTestUserSongs.size(), 
+					trainUserDegreeWeights, commonSongs, touchedUsers, deadline.fraction(0.5));
+			int numScoredUsers = similarUsers.numUsers;
+			if(isEarlyTermination() || getTimeBudgetMicros() > 0) {
+				numScoredUsers = addWeightsUntilTopNSongsAreFinal(similarUsers, songWeights, deadline);
+			}
+			else {
+				for(int i = 0; i < similarUsers.numUsers; i++) {
+					addWeights(similarUsers.users[i], similarUsers.weights[i], songWeights);
+				}
+			}
+			
+			for(int i = 0; i < similarUsers.numUsers; i++) {
+				int numPostings = trainUserSongs[similarUsers.users[i]].length;
+				totalPostings += numPostings;
+				if(i >= numScoredUsers) {
+					skippedPostings += numPostings;
+				}
 			}
 			
 			// Add the best N recommendations for this user
+			PriorityQueue<SongScore> topNSongScores = songWeights.getTopNSongScores(numSongsToRecommend, songIds);
+			songWeights.reset();
+			
+			List<Song> topNSongsList = Lists.newArrayList();
 			topNSongsList.addAll(AlgoUtils.getTopNSongs(topNSongScores, trainDataset));
 			topNSongsList = AlgoUtils.checkAndUpdateTopNSongs(topNSongsList, numSongsToRecommend, 
 					trainDataset.getOverallNPopularSongs(numSongsToRecommend));			
 			recommendations.put(testUser, topNSongsList);
+			if(!similarUsers.isComplete) {
+				inexactUsers.add(testUser);
+			}
+		}
+		
+		if(isEarlyTermination()) {
+			LOG.info("Early termination skipped " + skippedPostings + " of " + totalPostings + 
+					" song postings of similar users");
+		}
+		if(getTimeBudgetMicros() > 0) {
+			LOG.info("Time budget of " + getTimeBudgetMicros() + " us cut short the recommendations of " + 
+					inexactUsers.size() + " test users");
 		}
 		
 		return recommendations;
 	}
-
+	
 	/**
-	 * Gets the overall weight of a song for a test user, calculated by adding the individual
-	 * similarity scores contributed by each of the training set users who has listened to this song.
-	 * 
-	 * weight(song) = SUM [ pow(sim(u,v), gamma) for all v in TRAINING] where gamma is the normalization
-	 * constant used to minimize the impact of low weights and maximize the weights of high weights.
-	 * @param testUser
-	 * @param trainUsers
-	 * @param userSimMatrix
-	 * @return
+	 * Scores only the candidate songs : the weight of a candidate is the sum of the weights of its
+	 * listeners among the similar users, which is the weight it gets when scoring all the songs.
 	 */
-	private double getSongWeight(String testUser, List<String> trainUsers, Table<String, String, Double> userSimMatrix)
+	public PriorityQueue<SongScore> getTopCandidates(Map<String, Integer> history, Collection<String> candidates,
+			int numSongsToRecommend)
 	{
-		double weight = 0.0;
-		for(String trainUser : trainUsers) {
-			double simScoreBwUsers = 0.0;
-			if(userSimMatrix.contains(testUser, trainUser)) {
-				simScoreBwUsers = userSimMatrix.get(testUser, trainUser);
+		if(candidateDegreeWeights == null) {
+			candidateDegreeWeights = new double[trainUserSongs.length];
+			for(int trainUser = 0; trainUser < trainUserSongs.length; trainUser++) {
+				candidateDegreeWeights[trainUser] = Math.pow(trainUserSongs[trainUser].length, 1-getWeightCoefficient());
 			}
-			weight += Math.pow(simScoreBwUsers, getNormalizationCoefficient());
+			candidateUserWeights = new double[trainUserSongs.length];
+			candidateCommonSongs = new int[trainUserSongs.length];
+			candidateTouchedUsers = new int[trainUserSongs.length];
 		}
-
-		if(Double.compare(weight, 0.0) > 0) {
-			LOG.debug("Sim score for testuser " + testUser + " is " + weight);			
+		
+		List<Integer> testUserSongs = Lists.newArrayList();
+		for(String song : history.keySet()) {
+			Integer songIndex = songIndexMap.get(song);
+			if(songIndex != null) {
+				testUserSongs.add(songIndex);
+			}
+		}
+		
+		SimilarUsers similarUsers = getSimilarUsers(testUserSongs, history.size(), candidateDegreeWeights, 
+				candidateCommonSongs, candidateTouchedUsers, Deadline.NONE);
+		for(int i = 0; i < similarUsers.numUsers; i++) {
+			candidateUserWeights[similarUsers.users[i]] = similarUsers.weights[i];
+		}
+		
+		PriorityQueue<SongScore> topCandidates = new PriorityQueue<SongScore>(numSongsToRecommend);
+		for(String candidate : candidates) {
+			Integer song = songIndexMap.get(candidate);
+			if(song == null || history.containsKey(candidate)) {
+				continue;
+			}
+			
+			double weight = 0.0;
+			for(int listener : songListeners[song]) {
+				weight += candidateUserWeights[listener];
+			}
+			if(weight > 0.0) {
+				AlgoUtils.updateTopNSongs(numSongsToRecommend, topCandidates, candidate, weight);
+			}
 		}
 		
-		return weight;
+		for(int i = 0; i < similarUsers.numUsers; i++) {
+			candidateUserWeights[similarUsers.users[i]] = 0.0;
+		}
+		return topCandidates;
 	}
 	
 	/**
-	 * Computes the similarity between all the users in the test dataset against the users in the
-	 * train dataset.
+	 * Adds the weight of a similar train user to every song it has listened.
+	 */
+	private void addWeights(int trainUser, double weight, ScoreAccumulator songWeights)
+	{
+		for(int song : trainUserSongs[trainUser]) {
+			songWeights.add(song, weight);
+		}
+	}
+	
+	/**
+	 * Adds the weights of the similar users in the decreasing order of their weights, and stops as
+	 * soon as the deadline expires, or in early termination mode as soon as the top N songs can no
+	 * longer change (threshold algorithm).
 	 * 
-	 * Row - Test user
-	 * Column - Train user
-	 * Cell - similarity between test and train user calculated as follows :
+	 * A song can gain at most the sum of the weights of the similar users not processed yet. So if
+	 * the N-th best song is ahead of the (N+1)-th best song by more than this sum, the remaining
+	 * users cannot push any other song into the top N and the result is the same as adding all the
+	 * weights. The check is done after 1, 2, 4, 8 ... users so that its cost stays small compared to
+	 * the scoring itself.
 	 * 
-	 * sim(r, c) = common items (r,c)/items(r)pow(aplha) * items(c) pow(1-aplha)
-	 * @param testVisibleDataset
+	 * @return	Number of similar users whose weights have been added, in the sorted order
 	 */
-	private Table<String, String, Double> getUserSimilarityMatrix(DataSet testVisibleDataset)
-	{
-		Table<String, String, Double> userSimMatrix = HashBasedTable.create();
-		Map<String, Map<String, Integer>> trainListeningHistory = trainDataset.getUserListeningHistory();
-		Map<String, Map<String, Integer>> testVisibleListeningHistory = testVisibleDataset.getUserListeningHistory();
-		
-		Set<String> testVisibleListeners = testVisibleListeningHistory.keySet();
-		Set<String> trainListeners = trainListeningHistory.keySet();
-		for(String testUser : testVisibleListeners) {
-			Set<String> testUserSongs = testVisibleListeningHistory.get(testUser).keySet();
-			for(String trainUser : trainListeners) {
-				Set<String> trainUserSongs = trainListeningHistory.get(trainUser).keySet();
-				int commonSongs = getCommonSongs(testUserSongs, trainUserSongs);
-				
-				// Optimization : If no common songs, there is no similarity between these users.
-				// Don't add it to the matrix as it does not have any significance.
-				if(commonSongs == 0) {
-					continue;
+	private int addWeightsUntilTopNSongsAreFinal(SimilarUsers similarUsers, ScoreAccumulator songWeights, 
+			Deadline deadline)
+	{
+		similarUsers.sortByDecreasingWeight();
+		
+		// remainingWeights[i] is the sum of the weights of the users from i onwards
+		int numUsers = similarUsers.numUsers;
+		double[] remainingWeights = new double[numUsers + 1];
+		for(int i = numUsers - 1; i >= 0; i--) {
+			remainingWeights[i] = remainingWeights[i+1] + similarUsers.weights[i];
+		}
+		
+		int nextCheck = 1;
+		for(int i = 0; i < numUsers; i++) {
+			addWeights(similarUsers.users[i], similarUsers.weights[i], songWeights);
+			
+			int numScoredUsers = i + 1;
+			if(isEarlyTermination() && numScoredUsers == nextCheck && numScoredUsers < numUsers) {
+				nextCheck *= 2;
+				if(areTopNSongsFinal(songWeights, remainingWeights[numScoredUsers])) {
+					return numScoredUsers;
 				}
-				int testUserTotalSongs = testUserSongs.size();
-				int trainUserTotalSongs = trainUserSongs.size();
-				
-				/**
-				 * User similarity matrix contains testusers as row headers, train users as column
-				 * headers and the cell values contain the similarity score between a testuser
-				 * and a train user.
-				 */
-				double simScore = getSimScoreBwUsers(commonSongs, testUserTotalSongs, trainUserTotalSongs);
-				userSimMatrix.put(testUser, trainUser, simScore);
+			}
+			if(numScoredUsers < numUsers && deadline.isExpired()) {
+				similarUsers.isComplete = false;
+				return numScoredUsers;
 			}
 		}
 		
-		LOG.info(" Matrix => Rows : " + userSimMatrix.rowKeySet().size() + 
-				 ", Columns : " + userSimMatrix.columnKeySet().size());
-		return userSimMatrix;
+		return numUsers;
 	}
 	
 	/**
-	 * Get the number of common items between two sets.
-	 * @param setA
-	 * @param setB
-	 * @return
+	 * Checks if the top N songs are ahead of every other song by more than the weight still to be
+	 * added.
+	 */
+	private boolean areTopNSongsFinal(ScoreAccumulator songWeights, double remainingWeight)
+	{
+		// N-th best score can't be ahead of the remaining weight, not worth looking at the scores
+		if(songWeights.getNumTouchedSongs() < numSongsToRecommend) {
+			return false;
+		}
+		
+		PriorityQueue<SongScore> topSongScores = songWeights.getTopNSongScores(numSongsToRecommend + 1, songIds);
+		if(topSongScores.size() < numSongsToRecommend) {
+			return false;
+		}
+		
+		// Songs which have not been touched yet have a score of zero
+		double nextBestScore = 0.0;
+		if(topSongScores.size() > numSongsToRecommend) {
+			nextBestScore = topSongScores.remove().getScore();
+		}
+		double nthBestScore = topSongScores.peek().getScore();
+		
+		return Double.compare(nthBestScore, nextBestScore + remainingWeight) > 0;
+	}
+
+	/**
+	 * Computes the similarity between a test user and the users in the train dataset, and the
+	 * weight which each similar train user contributes to the songs it has listened :
+	 * 
+	 * sim(u, v) = common items (u,v)/items(u)pow(aplha) * items(v) pow(1-aplha)
+	 * weight(v) = pow(sim(u,v), gamma) where gamma is the normalization constant used to minimize the
+	 * impact of low weights and maximize the weights of high weights.
+	 * 
+	 * Instead of intersecting the songs of the test user with the songs of every train user, the
+	 * listeners of each song of the test user are walked and the common songs are counted only for
+	 * the train users who share at least one song with the test user. Train users with no common
+	 * songs have no similarity with the test user and are not returned. If the deadline expires
+	 * before all the songs are walked, the common songs are only counted over the songs walked so far.
+	 * In sampled mode, only the sampled listeners of every song are walked.
+	 * 
+	 * @param testUserSongs				Songs of the test user which are in the train dataset
+	 * @param testUserTotalSongs		Total number of songs of the test user
+	 * @param trainUserDegreeWeights	items(v) pow(1-alpha) for every train user
+	 * @param commonSongs				Scratch array of common songs per train user, all zeros
+	 * @param touchedUsers				Scratch array of train users with common songs
+	 * @param deadline					Deadline to stop walking the songs of the test user
 	 */
-	private int getCommonSongs(Set<String> setA, Set<String> setB)
+	private SimilarUsers getSimilarUsers(List<Integer> testUserSongs, int testUserTotalSongs, 
+			double[] trainUserDegreeWeights, int[] commonSongs, int[] touchedUsers, Deadline deadline)
 	{
-		if(setA == null || setB == null || setA.isEmpty() || setB.isEmpty()) {
-			return 0;
+		// Sampling every listener walks them in the original order, as the exact mode does
+		boolean isSampling = sampledSongListeners != null && sampledListenersPerSong < maxSongListeners;
+		int[][] listeners = isSampling ? sampledSongListeners : songListeners;
+		int numTouchedUsers = 0;
+		boolean isComplete = true;
+		for(int i = 0; i < testUserSongs.size(); i++) {
+			if(i > 0 && deadline.isExpired()) {
+				isComplete = false;
+				break;
+			}
+			int[] walkedListeners = listeners[testUserSongs.get(i)];
+			int numListeners = Math.min(walkedListeners.length, sampledListenersPerSong);
+			for(int j = 0; j < numListeners; j++) {
+				int trainUser = walkedListeners[j];
+				if(commonSongs[trainUser] == 0) {
+					touchedUsers[numTouchedUsers++] = trainUser;
+				}
+				++commonSongs[trainUser];
+			}
+		}
+		
+		double testUserDegreeWeight = Math.pow(testUserTotalSongs, getWeightCoefficient());
+		SimilarUsers similarUsers = new SimilarUsers(numTouchedUsers);
+		for(int i = 0; i < numTouchedUsers; i++) {
+			int trainUser = touchedUsers[i];
+			double simScore = getSimScoreBwUsers(commonSongs[trainUser], testUserDegreeWeight, 
+					trainUserDegreeWeights[trainUser]);
+			similarUsers.add(trainUser, Math.pow(simScore, getNormalizationCoefficient()));
+			commonSongs[trainUser] = 0;
 		}
+		similarUsers.isComplete = isComplete;
 		
-		return Sets.intersection(setA, setB).size();
+		return similarUsers;
+	}
+	
+	/**
+	 * Sorts the songs of a test user from the least listened to the most listened in the train
+	 * dataset.
+	 */
+	private void sortByIncreasingListeners(List<Integer> testUserSongs)
+	{
+		Collections.sort(testUserSongs, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b)
+			{
+				return songListeners[a].length - songListeners[b].length;
+			}
+		});
 	}
 	
 	/**
 	 * Gets the similarity score between two song listeners.
 	 * 
 	 * @param commonSongs
-	 * @param testUserSongs
-	 * @param trainUserSongs
+	 * @param testUserDegreeWeight		Number of songs of the test user, pow(alpha)
+	 * @param trainUserDegreeWeight		Number of songs of the train user, pow(1-alpha)
 	 * @return
 	 */
-	private double getSimScoreBwUsers(int commonSongs, int testUserSongs, int trainUserSongs)
+	private double getSimScoreBwUsers(int commonSongs, double testUserDegreeWeight, double trainUserDegreeWeight)
 	{
-		double weightCoeff = getWeightCoefficient();
-		double score = (double)(commonSongs)/
-				(double)((Math.pow(testUserSongs, weightCoeff))*(Math.pow(trainUserSongs, 1-weightCoeff)));
+		double score = (double)(commonSongs)/(testUserDegreeWeight*trainUserDegreeWeight);
 		
-		LOG.debug("Sim score for (" + commonSongs + ", " + testUserSongs + ", " + trainUserSongs + ") is " + score);
+		LOG.debug("Sim score for (" + commonSongs + ", " + testUserDegreeWeight + ", " + trainUserDegreeWeight + 
+				") is " + score);
 		return score;
 	}
+	
+	/**
+	 * Train users similar to a test user, along with the weight each of them contributes to the
+	 * songs it has listened. They are not complete, nor are their weights exact, if the deadline of
+	 * the test user expired before they were all found and scored.
+	 */
+	private static class SimilarUsers
+	{
+		int[] users;
+		double[] weights;
+		int numUsers = 0;
+		boolean isComplete = true;
+		
+		public SimilarUsers(int capacity)
+		{
+			users = new int[capacity];
+			weights = new double[capacity];
+		}
+		
+		public void add(int user, double weight)
+		{
+			users[numUsers] = user;
+			weights[numUsers] = weight;
+			++numUsers;
+		}
+		
+		public void sortByDecreasingWeight()
+		{
+			Integer[] order = new Integer[numUsers];
+			for(int i = 0; i < numUsers; i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b)
+				{
+					return Double.compare(weights[b], weights[a]);
+				}
+			});
+			
+			int[] sortedUsers = new int[numUsers];
+			double[] sortedWeights = new double[numUsers];
+			for(int i = 0; i < numUsers; i++) {
+				sortedUsers[i] = users[order[i]];
+				sortedWeights[i] = weights[order[i]];
+			}
+			users = sortedUsers;
+			weights = sortedWeights;
+		}
+	}
 }
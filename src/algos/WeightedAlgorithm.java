@@ -0,0 +1,17 @@
+package algos;
+
+import models.BootstrapSample;
+
+/**
+ * Interface to represent an Algorithm which can also be trained directly on a sample drawn from a
+ * dataset, without materializing the sample as a dataset of its own.
+ */
+public interface WeightedAlgorithm extends Algorithm
+{
+	/**
+	 * Method to generate a model from the interactions drawn in a sample.
+	 * @param sample
+	 */
+	public void generateModel(BootstrapSample sample);
+
+}
@@ -1,14 +1,27 @@
 package algos.ensembles;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
 import org.apache.log4j.Logger;
+import models.BootstrapSample;
 import models.DataSet;
 import models.Song;
+import utils.ParallelUtils;
+import utils.ScoreAccumulator;
 import utils.Utility;
 import algos.Algorithm;
+import algos.WeightedAlgorithm;
 
 /**
  * Bagging or Bootstrap Aggregation is an ensemble technique which use combination of hypotheses learned
@@ -30,10 +43,30 @@ public class Bagging implements Algorithm
 	public String mAlgoName = null;
 	public DataSet mOriginalTrainDataSet = null;
 	public List<Algorithm> mHypotheses = null;
+	public List<BootstrapSample> mSamples = null;		// Sample each hypothesis was trained on
 	public int mNumSongsToRecommend = 0;
 	
 	public static final int NUM_ITERATIONS_BAGGING = 5;
 	
+	public int mNumIterations = NUM_ITERATIONS_BAGGING;
+	
+	// Hypotheses are trained and run concurrently on at most these many threads
+	public int mNumThreads = Runtime.getRuntime().availableProcessors();
+	
+	// Out-of-bag accuracy of every hypothesis, once estimated
+	public double[] mOutOfBagAccuracies = null;
+	
+	// Maximum number of users every hypothesis is scored on for the out-of-bag accuracy
+	public int mMaxOutOfBagUsers = Integer.MAX_VALUE;
+	
+	// Weight of the votes of every hypothesis, all of them count as one vote by default
+	public double[] mHypothesisWeights = new double[0];
+	
+	public static final long DEFAULT_SEED = 0xBA66L;
+	
+	// Seed from which the seed of every bag is drawn
+	public long mSeed = DEFAULT_SEED;
+	
 	/* Methods */
 	
 	public Bagging(String algoName, int numSongsToRecommend)
@@ -43,8 +76,68 @@ public class Bagging implements Algorithm
 		mHypotheses = new ArrayList<Algorithm>();
 	}
 	
+	public int getNumIterations()
+	{
+		return mNumIterations;
+	}
+	
+	public void setNumIterations(int numIterations)
+	{
+		mNumIterations = numIterations;
+	}
+	
+	public long getSeed()
+	{
+		return mSeed;
+	}
+	
+	public void setSeed(long seed)
+	{
+		mSeed = seed;
+	}
+	
+	public double[] getHypothesisWeights()
+	{
+		return mHypothesisWeights;
+	}
+	
+	/**
+	 * Sets the weight of the votes of every hypothesis, e.g. from a score of each hypothesis. Reset to
+	 * plain counts of votes on every training.
+	 * 
+	 * @throws IllegalArgumentException	If the model has been generated and there is not one weight per
+	 * 									hypothesis
+	 */
+	public void setHypothesisWeights(double[] hypothesisWeights)
+	{
+		if(!mHypotheses.isEmpty())
+			checkHypothesisWeights(hypothesisWeights);
+		mHypothesisWeights = hypothesisWeights;
+	}
+	
+	private void checkHypothesisWeights(double[] hypothesisWeights)
+	{
+		int numWeights = (hypothesisWeights == null) ? 0 : hypothesisWeights.length;
+		if(numWeights != mHypotheses.size())
+			throw new IllegalArgumentException("BAGGING: " + numWeights + " hypothesis weights given for " + 
+					mHypotheses.size() + " hypotheses of " + mAlgoName);
+	}
+	
+	public int getNumThreads()
+	{
+		return mNumThreads;
+	}
+	
+	public void setNumThreads(int numThreads)
+	{
+		mNumThreads = numThreads;
+	}
+	
 	/**
 	 * Method to generate model using the given training dataset.
+	 * 
+	 * Each hypothesis is trained on its own randomly drawn dataset, so they are all trained
+	 * concurrently.
 	 */
 	public void generateModel(DataSet trainDataset)
 	{
@@ -60,125 +153,297 @@ public class Bagging implements Algorithm
 			}
 		}
 		
-		for(int i = 0; i < NUM_ITERATIONS_BAGGING; i++)
+		// Every bag is drawn as a view over the same interactions, with a seed of its own
+		final BootstrapSample.Interactions interactions = new BootstrapSample.Interactions(mOriginalTrainDataSet);
+		Random seeds = new Random(mSeed);
+		
+		final BootstrapSample[] samples = new BootstrapSample[mNumIterations];
+		
+		List<Callable<Algorithm>> trainingTasks = new ArrayList<Callable<Algorithm>>();
+		for(int i = 0; i < mNumIterations; i++)
 		{
-			// Change the training data set
-			DataSet randomlyDrawnDataset = Utility.getDatasetDrawnWithReplacement(mOriginalTrainDataSet);
-			
-			// Generate Model
-			Algorithm algo = Utility.getAlgorithmInstance(mAlgoName, mNumSongsToRecommend);
-			algo.generateModel(randomlyDrawnDataset);
+			final int bag = i;
+			final long bagSeed = seeds.nextLong();
+			trainingTasks.add(new Callable<Algorithm>() {
+				public Algorithm call()
+				{
+					// Change the training data set, drawing whole users so that about 1/e of them are out of the bag
+					BootstrapSample sample = new BootstrapSample(interactions, bagSeed, true);
+					samples[bag] = sample;
+					
+					// Generate Model, directly on the sample if the algorithm supports it
+					Algorithm algo = Utility.getAlgorithmInstance(mAlgoName, mNumSongsToRecommend);
+					if(algo instanceof WeightedAlgorithm)
+						((WeightedAlgorithm)algo).generateModel(sample);
+					else
+						algo.generateModel(sample.toDataSet());
+					return algo;
+				}
+			});
+		}
+		
+		// Replace the hypotheses of any previous training with the new ones
+		mHypotheses = ParallelUtils.runConcurrently(trainingTasks, mNumThreads);
+		mSamples = Arrays.asList(samples);
+		mHypothesisWeights = new double[mHypotheses.size()];
+		Arrays.fill(mHypothesisWeights, 1.0);
+	}
+
+	/**
+	 * Method to estimate the accuracy of the generated model without any test dataset.
+	 * 
+	 * Every hypothesis is only scored on the train users which were not drawn in its sample, so that
+	 * the user is not in its model, e.g. as its own nearest neighbour. Scoring a user whose songs are
+	 * in the model would inflate the estimate. Such a user is given the first half of its songs and
+	 * scored on the other half, as the test users of a cross validation fold are. The accuracies of
+	 * the hypotheses are averaged over all the users scored, and each one is kept as a score of its
+	 * hypothesis, e.g. to weigh its votes.
+	 * 
+	 * The samples are drawn over users, so about 1/e of the users are scored by every hypothesis,
+	 * whatever their number of songs.
+	 * 
+	 * @return	Out-of-bag accuracy of the hypotheses
+	 */
+	public double getOutOfBagAccuracy()
+	{
+		List<Callable<double[]>> evaluationTasks = new ArrayList<Callable<double[]>>();
+		for(int i = 0; i < mHypotheses.size(); i++)
+		{
+			final Algorithm hypo = mHypotheses.get(i);
+			final BootstrapSample sample = mSamples.get(i);
+			evaluationTasks.add(new Callable<double[]>() {
+				public double[] call()
+				{
+					return getOutOfBagAccuracy(hypo, sample);
+				}
+			});
+		}
+		
+		mOutOfBagAccuracies = new double[mHypotheses.size()];
+		double sumAccuracy = 0.0;
+		int numUsers = 0;
+		List<double[]> evaluations = ParallelUtils.runConcurrently(evaluationTasks, mNumThreads);
+		for(int i = 0; i < evaluations.size(); i++)
+		{
+			mOutOfBagAccuracies[i] = evaluations.get(i)[0];
+			sumAccuracy += evaluations.get(i)[0] * evaluations.get(i)[1];
+			numUsers += (int)evaluations.get(i)[1];
+		}
+		
+		return (numUsers == 0) ? 0.0 : sumAccuracy / numUsers;
+	}
+	
+	public double[] getOutOfBagAccuracies()
+	{
+		return mOutOfBagAccuracies;
+	}
+	
+	public int getMaxOutOfBagUsers()
+	{
+		return mMaxOutOfBagUsers;
+	}
+	
+	public void setMaxOutOfBagUsers(int maxOutOfBagUsers)
+	{
+		mMaxOutOfBagUsers = maxOutOfBagUsers;
+	}
+	
+	/**
+	 * Scores a hypothesis on the users left out of its sample.
+	 * 
+	 * @return	Accuracy of the hypothesis and number of users scored
+	 */
+	private double[] getOutOfBagAccuracy(Algorithm hypo, BootstrapSample sample)
+	{
+		Map<String, Map<String, Integer>> visibleHistory = new HashMap<String, Map<String, Integer>>();
+		Map<String, Map<String, Integer>> hiddenHistory = new HashMap<String, Map<String, Integer>>();
+		BootstrapSample.Interactions interactions = sample.getInteractions();
+		for(int user = 0; user < interactions.getNumUsers() && visibleHistory.size() < mMaxOutOfBagUsers; user++)
+		{
+			// Users with any song in the sample are in the model of the hypothesis
+			List<Map.Entry<String, Integer>> outOfBagHistory = sample.getOutOfBagHistory(user);
+			int numSongs = outOfBagHistory.size();
+			if(numSongs < 2 || !sample.getSampledHistory(user).isEmpty()) continue;
 			
-			// Add it to the list of models
-			mHypotheses.add(algo);
+			visibleHistory.put(interactions.getUser(user), toMap(outOfBagHistory.subList(0, numSongs/2 + 1)));
+			hiddenHistory.put(interactions.getUser(user), toMap(outOfBagHistory.subList(numSongs/2 + 1, numSongs)));
 		}
+		if(visibleHistory.isEmpty())
+			return new double[] {0.0, 0.0};
+		
+		DataSet visibleDataset = new DataSet(visibleHistory, Utility.getSongMapForListeningHistory(visibleHistory));
+		DataSet hiddenDataset = new DataSet(hiddenHistory, Utility.getSongMapForListeningHistory(hiddenHistory));
+		Map<String, List<Song>> recommendations = hypo.recommend(visibleDataset);
+		return new double[] {Utility.getAccuracy(recommendations, hiddenDataset), recommendations.size()};
+	}
+	
+	private static Map<String, Integer> toMap(List<Map.Entry<String, Integer>> entries)
+	{
+		Map<String, Integer> map = new HashMap<String, Integer>();
+		for(Map.Entry<String, Integer> entry : entries)
+			map.put(entry.getKey(), entry.getValue());
+		return map;
 	}
 
 	/**
 	 * Method to give recommendations for the users in visible test dataset.
+	 * 
+	 * Every song recommended to a user by a hypothesis gets the weight of the hypothesis as a vote,
+	 * and the songs with the most votes are recommended. The votes are summed up in a dense array
+	 * of song scores, for the users of a chunk at a time on every thread, so that combining the
+	 * recommendations of a user only costs as much as the number of songs recommended to the user.
+	 * 
+	 * @throws IllegalArgumentException	If there is not one hypothesis weight per hypothesis
 	 */
-	public Map<String, List<Song>> recommend(DataSet testVisibleDataset)
+	public Map<String, List<Song>> recommend(final DataSet testVisibleDataset)
 	{
-		Map<String, List<Song>> overallRecommendations = new HashMap<String, List<Song>>();
+		checkHypothesisWeights(mHypothesisWeights);
 		
-		// Map <UserID, Map<SongID, recommendCount>
-		Map<String, Map<String, Integer>> userSongRecoMap = new HashMap<String, Map<String, Integer>>();
+		// Main Function of Algorithm being called, for all the hypotheses concurrently
+		List<Callable<Map<String, List<Song>>>> recommendTasks = new ArrayList<Callable<Map<String, List<Song>>>>();
+		for(final Algorithm hypo : mHypotheses)
+		{
+			recommendTasks.add(new Callable<Map<String, List<Song>>>() {
+				public Map<String, List<Song>> call()
+				{
+					return hypo.recommend(testVisibleDataset);
+				}
+			});
+		}
+		final List<Map<String, List<Song>>> hypothesesRecommendations = 
+				ParallelUtils.runConcurrently(recommendTasks, mNumThreads);
 		
-		for(Algorithm hypo : mHypotheses)
+		// Index all the recommended songs and the users they are recommended to
+		final Map<String, Integer> songIndexMap = new HashMap<String, Integer>();
+		final List<String> songIds = new ArrayList<String>();
+		final List<Song> songs = new ArrayList<Song>();
+		Set<String> users = new LinkedHashSet<String>();
+		for(Map<String, List<Song>> recommendations : hypothesesRecommendations)
 		{
-			// Main Function of Algorithm being called
-			Map<String, List<Song>> recommendations = hypo.recommend(testVisibleDataset);
-			
 			// TODO: Ideally should log some error.
 			if(recommendations == null) continue;
 			
-			// For every user
 			for(Map.Entry<String, List<Song>> perUserEntry: recommendations.entrySet())
 			{
-				String userID = perUserEntry.getKey();
-				List<Song> recommendedSongs = perUserEntry.getValue();
-				
-				// For every recommended song for this user
-				for(Song song : recommendedSongs)
+				users.add(perUserEntry.getKey());
+				for(Song song : perUserEntry.getValue())
 				{
-					String songID = song.getSongID();
-					
-					if(userSongRecoMap.containsKey(userID))
-					{
-						Map<String, Integer> songCountMap = userSongRecoMap.get(userID);
-						if(songCountMap.containsKey(songID))
-							songCountMap.put(songID, songCountMap.get(songID) + 1); // TODO: Replace 1 with song score
-						else
-							songCountMap.put(songID, 1);	// TODO: Replace 1 with song score
-					}
-					else
+					if(!songIndexMap.containsKey(song.getSongID()))
 					{
-						Map<String, Integer> songCountMap = new HashMap<String, Integer>();
-						songCountMap.put(songID, 1);	// TODO: Replace 1 with song score
-						userSongRecoMap.put(userID, songCountMap);
+						songIndexMap.put(song.getSongID(), songs.size());
+						songIds.add(song.getSongID());
+						songs.add(getSongObject(song.getSongID(), testVisibleDataset));
 					}
 				}
 			}
 		}
 		
-		// TODO: Get combined recommendations
-		for(Map.Entry<String, Map<String, Integer>> perUserEntry: userSongRecoMap.entrySet())
+		// Combine the votes of the users, a chunk of users on every thread
+		final List<String> usersList = new ArrayList<String>(users);
+		int numChunks = Math.max(1, Math.min(mNumThreads, usersList.size()));
+		List<Callable<Map<String, List<Song>>>> combineTasks = new ArrayList<Callable<Map<String, List<Song>>>>();
+		for(int chunk = 0; chunk < numChunks; chunk++)
 		{
-			String userID = perUserEntry.getKey();
-			Map<String, Integer> songCountMap = perUserEntry.getValue();
-			
-			// Get song IDs with top scores
-			List<String> recommendedSongIDs = Utility.sortHashMapByValues(new HashMap<String, Integer>(songCountMap), mNumSongsToRecommend);
-			
+			final int chunkStart = (int)((long)usersList.size() * chunk / numChunks);
+			final int chunkEnd = (int)((long)usersList.size() * (chunk + 1) / numChunks);
+			combineTasks.add(new Callable<Map<String, List<Song>>>() {
+				public Map<String, List<Song>> call()
+				{
+					return combineVotes(hypothesesRecommendations, usersList.subList(chunkStart, chunkEnd), 
+							songIndexMap, songIds, songs);
+				}
+			});
+		}
+		
+		Map<String, List<Song>> overallRecommendations = new HashMap<String, List<Song>>();
+		for(Map<String, List<Song>> chunkRecommendations : ParallelUtils.runConcurrently(combineTasks, mNumThreads))
+			overallRecommendations.putAll(chunkRecommendations);
+		
+		return overallRecommendations;
+	}
+	
+	/**
+	 * Combines the votes of all the hypotheses for each of the given users.
+	 */
+	private Map<String, List<Song>> combineVotes(List<Map<String, List<Song>>> hypothesesRecommendations, 
+			List<String> users, Map<String, Integer> songIndexMap, List<String> songIds, List<Song> songs)
+	{
+		Map<String, List<Song>> recommendations = new HashMap<String, List<Song>>();
+		ScoreAccumulator votes = new ScoreAccumulator(songs.size());
+		for(String userID : users)
+		{
+			for(int hypo = 0; hypo < hypothesesRecommendations.size(); hypo++)
+			{
+				Map<String, List<Song>> hypoRecommendations = hypothesesRecommendations.get(hypo);
+				List<Song> recommendedSongs = (hypoRecommendations == null) ? null : hypoRecommendations.get(userID);
+				if(recommendedSongs == null) continue;
+				
+				for(Song song : recommendedSongs)
+					votes.add(songIndexMap.get(song.getSongID()), mHypothesisWeights[hypo]);
+			}
 			
-//			Map<String, Song> songMap = mOriginalTrainDataSet.getSongMap();
-//			for(Song s : songMap.values())
-//			{
-//				if(s == null)
-//				{
-//					System.err.println("BAGGING: RECOMMEND :: songObject = null in Original TrainDataset!");
-//					System.exit(1);
-//				}
-//			}
-//			for(Map.Entry<String, Song> songEntry : mOriginalTrainDataSet.getSongMap().entrySet())
-//			{
-//				Song s = songEntry.getValue();
-//				if(s == null)
-//					System.err.println("BAGGING: RECOMMEND :: songObject = null in Original TrainDataset!");
-//			}
+			// Get songs with top votes, in decreasing order of votes
+			PriorityQueue<Integer> topSongs = new PriorityQueue<Integer>(mNumSongsToRecommend, 
+					new VoteComparator(votes, songIds));
+			for(int i = 0; i < votes.getNumTouchedSongs(); i++)
+			{
+				topSongs.add(votes.getTouchedSong(i));
+				if(topSongs.size() > mNumSongsToRecommend)
+					topSongs.remove();
+			}
 			
-			// Get songIDs for these selected songs
-			List<Song> recommendedSongs = new ArrayList<Song>();
-			for(String songID : recommendedSongIDs)
+			LinkedList<Song> recommendedSongs = new LinkedList<Song>();
+			while(!topSongs.isEmpty())
 			{
-				if(songID == null)
-					System.err.println("BAGGING: songID = null ALGORITHM==>" + mAlgoName);
-				else if(mOriginalTrainDataSet.getSongMap().containsKey(songID))
-				{
-					Song songObject = mOriginalTrainDataSet.getSongMap().get(songID);
-					if(songObject == null)
-						System.err.println("BAGGING: songObject = null in Original_TRAIN_DATASET!");
-					
-					recommendedSongs.add(songObject);
-				}
-				else if(testVisibleDataset.getSongMap().containsKey(songID))
-				{
-					Song songObject = testVisibleDataset.getSongMap().get(songID);
-					if(songObject == null)
-						System.err.println("BAGGING: songObject = null in TEST_DATASET!");
-					
-					recommendedSongs.add(songObject);
-				}
-				else
-					System.err.println("BAGGING: songID not found songID==>" + songID  + " ALGORITHM==>" + mAlgoName);
+				Song songObject = songs.get(topSongs.remove());
+				if(songObject != null)
+					recommendedSongs.addFirst(songObject);
 			}
-//			LOG.info("BAGGING:recommendedSongs.Size = " + recommendedSongs.size() +" ===========================");
+			recommendations.put(userID, new ArrayList<Song>(recommendedSongs));
 			
-			overallRecommendations.put(userID, recommendedSongs);
+			votes.reset();
 		}
 		
-		return overallRecommendations;
+		return recommendations;
 	}
-
 	
+	/**
+	 * Get the song object of a recommended song, from the original train dataset or else from the
+	 * test dataset.
+	 */
+	private Song getSongObject(String songID, DataSet testVisibleDataset)
+	{
+		Song songObject = mOriginalTrainDataSet.getSongMap().get(songID);
+		if(songObject == null)
+			songObject = testVisibleDataset.getSongMap().get(songID);
+		if(songObject == null)
+			LOG.warn("Song " + songID + " recommended by " + mAlgoName + " is neither in the train nor the test dataset");
+		
+		return songObject;
+	}
+	
+	/**
+	 * Orders songs by increasing votes, ties being ordered by decreasing song ID, so that the head of
+	 * a queue is the first song to drop from the top songs.
+	 */
+	private static class VoteComparator implements Comparator<Integer>
+	{
+		private ScoreAccumulator mVotes = null;
+		private List<String> mSongIds = null;
+		
+		public VoteComparator(ScoreAccumulator votes, List<String> songIds)
+		{
+			mVotes = votes;
+			mSongIds = songIds;
+		}
+		
+		public int compare(Integer a, Integer b)
+		{
+			int compare = Double.compare(mVotes.getScore(a), mVotes.getScore(b));
+			if(compare != 0)
+				return compare;
+			
+			return mSongIds.get(b).compareTo(mSongIds.get(a));
+		}
+	}
 }
@@ -0,0 +1,27 @@
+package algos.pipeline;
+
+import java.util.List;
+import java.util.Map;
+
+import models.DataSet;
+
+/**
+ * Cheap first stage of a {@link TwoStagePipeline}, which finds a few hundred songs likely to be
+ * recommended to a user, for an expensive algorithm to score.
+ *
+ * @author excelsior
+ *
+ */
+public interface CandidateGenerator
+{
+	public void generateModel(DataSet trainDataset);
+	
+	/**
+	 * Gets the best candidate songs for a user, other than the songs the user has listened already.
+	 *
+	 * @param history		Listening history of the user
+	 * @param numCandidates	Maximum number of candidates
+	 * @return	Song IDs of the candidates
+	 */
+	public List<String> getCandidates(Map<String, Integer> history, int numCandidates);
+}
@@ -0,0 +1,95 @@
+package algos.pipeline;
+
+import java.util.List;
+import java.util.Map;
+
+import models.DataSet;
+import models.Song;
+import models.SongScore;
+import utils.CoListeningCounter;
+import utils.ScoreAccumulator;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Generates as candidates the songs most listened together with the songs of the user : the songs
+ * of the listeners of every song of the user are counted, walking at most a fixed number of
+ * listeners per song so that the popular songs do not make the walk as long as the train dataset.
+ *
+ * The generator is not thread-safe, its scratch accumulator is shared by all the users.
+ *
+ * @author excelsior
+ *
+ */
+public class CoListeningCandidateGenerator implements CandidateGenerator
+{
+	private int maxListenersPerSong = 50;
+	
+	private String[] mSongIds = null;
+	private Map<String, Integer> mSongIndexMap = null;
+	
+	// Songs of every listener of every song
+	private int[][][] mSongListenerSongs = null;
+	
+	private ScoreAccumulator mCandidateScores = null;
+	
+	public int getMaxListenersPerSong()
+	{
+		return maxListenersPerSong;
+	}
+	
+	public void setMaxListenersPerSong(int maxListenersPerSong)
+	{
+		this.maxListenersPerSong = maxListenersPerSong;
+	}
+	
+	public void generateModel(DataSet trainDataset)
+	{
+		CoListeningCounter coListeningCounter = new CoListeningCounter(trainDataset);
+		int numSongs = coListeningCounter.getNumSongs();
+		mSongIds = coListeningCounter.getSongIds();
+		mSongIndexMap = coListeningCounter.getSongIndexMap();
+		
+		Map<String, int[]> userSongsMap = coListeningCounter.getUserSongsMap();
+		Map<String, Song> songMap = trainDataset.getSongMap();
+		mSongListenerSongs = new int[numSongs][][];
+		for(int song = 0; song < numSongs; song++) {
+			List<String> listeners = songMap.get(mSongIds[song]).getListenersList();
+			mSongListenerSongs[song] = new int[listeners.size()][];
+			for(int i = 0; i < listeners.size(); i++) {
+				mSongListenerSongs[song][i] = userSongsMap.get(listeners.get(i));
+			}
+		}
+		
+		mCandidateScores = new ScoreAccumulator(numSongs);
+	}
+	
+	public List<String> getCandidates(Map<String, Integer> history, int numCandidates)
+	{
+		for(String songId : history.keySet()) {
+			Integer song = mSongIndexMap.get(songId);
+			if(song == null) {
+				continue;
+			}
+			int[][] listenerSongs = mSongListenerSongs[song];
+			for(int i = 0; i < listenerSongs.length && i < maxListenersPerSong; i++) {
+				for(int otherSong : listenerSongs[i]) {
+					mCandidateScores.add(otherSong, 1.0);
+				}
+			}
+		}
+		for(String songId : history.keySet()) {
+			Integer song = mSongIndexMap.get(songId);
+			if(song != null) {
+				mCandidateScores.exclude(song);
+			}
+		}
+		
+		List<String> candidates = Lists.newArrayList();
+		for(SongScore songScore : mCandidateScores.getTopNSongScores(numCandidates, mSongIds)) {
+			candidates.add(songScore.getSong());
+		}
+		mCandidateScores.reset();
+		return candidates;
+	}
+}
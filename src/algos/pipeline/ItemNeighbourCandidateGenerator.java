@@ -0,0 +1,84 @@
+package algos.pipeline;
+
+import java.util.List;
+import java.util.Map;
+
+import models.DataSet;
+import models.SongScore;
+import utils.ScoreAccumulator;
+import algos.ItemBasedCollaborativeFiltering;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Generates as candidates the nearest neighbours of the songs of the user : the most similar songs
+ * to every song are found once when generating the model, by the song-to-song similarity matrix of
+ * {@link ItemBasedCollaborativeFiltering}, and the candidates of a user are the neighbours of its
+ * songs with the highest sum of similarities. The cost per user only depends on the number of songs
+ * of the user.
+ *
+ * The generator is not thread-safe, its scratch accumulator is shared by all the users.
+ *
+ * @author excelsior
+ *
+ */
+public class ItemNeighbourCandidateGenerator implements CandidateGenerator
+{
+	private int numNeighboursPerSong = 50;
+	
+	// Song-to-song similarity matrix, whose neighbour lists are the candidates
+	private ItemBasedCollaborativeFiltering mItemBased = null;
+	private String[] mSongIds = null;
+	private Map<String, Integer> mSongIndexMap = null;
+	
+	private ScoreAccumulator mCandidateScores = null;
+	
+	public int getNumNeighboursPerSong()
+	{
+		return numNeighboursPerSong;
+	}
+	
+	public void setNumNeighboursPerSong(int numNeighboursPerSong)
+	{
+		this.numNeighboursPerSong = numNeighboursPerSong;
+	}
+	
+	public void generateModel(DataSet trainDataset)
+	{
+		mItemBased = new ItemBasedCollaborativeFiltering(0);
+		mItemBased.setNumNeighbours(numNeighboursPerSong);
+		mItemBased.generateModel(trainDataset);
+		
+		mSongIds = mItemBased.getSongIds();
+		mSongIndexMap = mItemBased.getSongIndexMap();
+		mCandidateScores = new ScoreAccumulator(mSongIds.length);
+	}
+	
+	public List<String> getCandidates(Map<String, Integer> history, int numCandidates)
+	{
+		for(String songId : history.keySet()) {
+			Integer song = mSongIndexMap.get(songId);
+			if(song == null) {
+				continue;
+			}
+			int[] neighbours = mItemBased.getSongNeighbours(song);
+			double[] similarities = mItemBased.getSongNeighbourScores(song);
+			for(int i = 0; i < neighbours.length; i++) {
+				mCandidateScores.add(neighbours[i], similarities[i]);
+			}
+		}
+		for(String songId : history.keySet()) {
+			Integer song = mSongIndexMap.get(songId);
+			if(song != null) {
+				mCandidateScores.exclude(song);
+			}
+		}
+		
+		List<String> candidates = Lists.newArrayList();
+		for(SongScore songScore : mCandidateScores.getTopNSongScores(numCandidates, mSongIds)) {
+			candidates.add(songScore.getSong());
+		}
+		mCandidateScores.reset();
+		return candidates;
+	}
+}
@@ -0,0 +1,54 @@
+package algos.pipeline;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import models.DataSet;
+import models.Song;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Generates the most popular songs as candidates, so that users with few or unknown songs still get
+ * candidates.
+ *
+ * @author excelsior
+ *
+ */
+public class PopularCandidateGenerator implements CandidateGenerator
+{
+	// Train songs in the decreasing order of their number of listeners
+	private List<String> mSongsByPopularity = null;
+	
+	public void generateModel(DataSet trainDataset)
+	{
+		List<Song> songs = Lists.newArrayList(trainDataset.getSongMap().values());
+		Collections.sort(songs, new Comparator<Song>() {
+			public int compare(Song a, Song b)
+			{
+				return b.getListenersList().size() - a.getListenersList().size();
+			}
+		});
+		
+		mSongsByPopularity = Lists.newArrayList();
+		for(Song song : songs) {
+			mSongsByPopularity.add(song.getSongID());
+		}
+	}
+	
+	public List<String> getCandidates(Map<String, Integer> history, int numCandidates)
+	{
+		List<String> candidates = Lists.newArrayList();
+		for(String song : mSongsByPopularity) {
+			if(candidates.size() == numCandidates) {
+				break;
+			}
+			if(!history.containsKey(song)) {
+				candidates.add(song);
+			}
+		}
+		return candidates;
+	}
+}
@@ -0,0 +1,188 @@
+package algos.pipeline;
+
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import models.DataSet;
+import models.Song;
+import models.SongScore;
+
+import org.apache.log4j.Logger;
+
+import utils.AlgoUtils;
+import utils.Utility;
+import algos.Algorithm;
+import algos.CandidateScorer;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Recommends songs in two stages : cheap candidate generators first find a few hundred songs for
+ * every user, e.g. the popular songs, the nearest neighbours of the user's songs and the songs
+ * listened together with them, and an expensive algorithm then scores only those candidates. The
+ * cost of the expensive algorithm per user depends on the number of candidates instead of the
+ * number of songs, at the cost of missing the songs which no generator finds.
+ *
+ * The number of candidates and the time spent by every stage are logged after recommending.
+ *
+ * @author excelsior
+ *
+ */
+public class TwoStagePipeline implements Algorithm
+{
+	private static Logger LOG = Logger.getLogger(TwoStagePipeline.class);
+	
+	// Number of songs to recommend for a user
+	private int mSongsCount = 0;
+	
+	private DataSet mTrainDataset = null;
+	
+	private List<CandidateGenerator> mGenerators = null;
+	private CandidateScorer mScorer = null;
+	
+	private int numCandidatesPerGenerator = 200;
+	
+	// Stats of the last recommendations : number of users, candidates and time of every stage
+	private int mNumUsers = 0;
+	private long[] mGeneratorCandidates = null;
+	private long[] mGeneratorNanos = null;
+	private long mScorerCandidates = 0;
+	private long mScorerNanos = 0;
+	
+	/**
+	 * Pipeline scoring the popular songs, the nearest neighbours of the user's songs and the songs
+	 * listened together with them with an algorithm.
+	 *
+	 * @param scorerAlgoName	Name of the algorithm scoring the candidates, see {@link CandidateScorer}
+	 */
+	public TwoStagePipeline(String scorerAlgoName, int numSongsToRecommend)
+	{
+		this(getScorer(scorerAlgoName, numSongsToRecommend), Lists.<CandidateGenerator>newArrayList(
+				new PopularCandidateGenerator(), new ItemNeighbourCandidateGenerator(),
+				new CoListeningCandidateGenerator()), numSongsToRecommend);
+	}
+	
+	public TwoStagePipeline(CandidateScorer scorer, List<CandidateGenerator> generators, int numSongsToRecommend)
+	{
+		this.mScorer = scorer;
+		this.mGenerators = generators;
+		this.mSongsCount = numSongsToRecommend;
+	}
+	
+	private static CandidateScorer getScorer(String algoName, int numSongsToRecommend)
+	{
+		Algorithm algo = Utility.getAlgorithmInstance(algoName, numSongsToRecommend);
+		if(!(algo instanceof CandidateScorer)) {
+			throw new IllegalArgumentException(algoName + " cannot score candidate songs");
+		}
+		return (CandidateScorer)algo;
+	}
+	
+	public int getNumCandidatesPerGenerator()
+	{
+		return numCandidatesPerGenerator;
+	}
+	
+	public void setNumCandidatesPerGenerator(int numCandidatesPerGenerator)
+	{
+		this.numCandidatesPerGenerator = numCandidatesPerGenerator;
+	}
+	
+	public CandidateScorer getScorer()
+	{
+		return mScorer;
+	}
+	
+	/**
+	 * Average number of distinct candidates scored per user, in the last recommendations.
+	 */
+	public double getAverageNumCandidates()
+	{
+		return (mNumUsers == 0) ? 0.0 : mScorerCandidates/(double)mNumUsers;
+	}
+	
+	public void generateModel(DataSet trainDataset)
+	{
+		this.mTrainDataset = trainDataset;
+		
+		for(CandidateGenerator generator : mGenerators) {
+			Stopwatch generatorTimer = Stopwatch.createStarted();
+			generator.generateModel(trainDataset);
+			LOG.info("Built " + generator.getClass().getSimpleName() + " in " +
+					generatorTimer.elapsed(TimeUnit.MILLISECONDS) + " ms");
+		}
+		
+		Stopwatch scorerTimer = Stopwatch.createStarted();
+		mScorer.generateModel(trainDataset);
+		LOG.info("Built " + mScorer.getClass().getSimpleName() + " in " +
+				scorerTimer.elapsed(TimeUnit.MILLISECONDS) + " ms");
+	}
+	
+	public Map<String, List<Song>> recommend(DataSet testVisibleDataset)
+	{
+		List<Song> popularSongs = mTrainDataset.getOverallNPopularSongs(mSongsCount);
+		Map<String, Song> trainSongMap = mTrainDataset.getSongMap();
+		
+		mNumUsers = 0;
+		mGeneratorCandidates = new long[mGenerators.size()];
+		mGeneratorNanos = new long[mGenerators.size()];
+		mScorerCandidates = 0;
+		mScorerNanos = 0;
+		
+		Map<String, List<Song>> songRecommendationsForUserMap = Maps.newHashMap();
+		for(Map.Entry<String, Map<String, Integer>> entry : testVisibleDataset.getUserListeningHistory().entrySet()) {
+			Map<String, Integer> history = entry.getValue();
+			
+			// First stage : union of the candidates of all the generators
+			Set<String> candidates = Sets.newLinkedHashSet();
+			for(int i = 0; i < mGenerators.size(); i++) {
+				long start = System.nanoTime();
+				List<String> generatorCandidates = mGenerators.get(i).getCandidates(history, numCandidatesPerGenerator);
+				candidates.addAll(generatorCandidates);
+				mGeneratorNanos[i] += System.nanoTime() - start;
+				mGeneratorCandidates[i] += generatorCandidates.size();
+			}
+			
+			// Second stage : scoring of the candidates only
+			long start = System.nanoTime();
+			PriorityQueue<SongScore> topNSongScores = mScorer.getTopCandidates(history, candidates, mSongsCount);
+			mScorerNanos += System.nanoTime() - start;
+			mScorerCandidates += candidates.size();
+			++mNumUsers;
+			
+			List<Song> recommendations = Lists.newArrayList();
+			for(SongScore songScore : topNSongScores) {
+				recommendations.add(trainSongMap.get(songScore.getSong()));
+			}
+			songRecommendationsForUserMap.put(entry.getKey(),
+					AlgoUtils.checkAndUpdateTopNSongs(recommendations, mSongsCount, popularSongs));
+		}
+		
+		logStageStats();
+		return songRecommendationsForUserMap;
+	}
+	
+	/**
+	 * Logs the average number of candidates and time per user of every stage.
+	 */
+	private void logStageStats()
+	{
+		if(mNumUsers == 0) {
+			return;
+		}
+		
+		for(int i = 0; i < mGenerators.size(); i++) {
+			LOG.info("Stage 1, " + mGenerators.get(i).getClass().getSimpleName() + " : " +
+					mGeneratorCandidates[i]/mNumUsers + " candidates, " +
+					mGeneratorNanos[i]/1000/mNumUsers + " us per user");
+		}
+		LOG.info("Stage 2, " + mScorer.getClass().getSimpleName() + " : " + mScorerCandidates/mNumUsers +
+				" distinct candidates, " + mScorerNanos/1000/mNumUsers + " us per user");
+	}
+}
@@ -0,0 +1,110 @@
+package experiments;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import models.Constants;
+import models.DataSet;
+import models.Song;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import utils.Utility;
+import utils.data.CrossValidationFactory;
+import utils.data.FileReader;
+import utils.data.Reader;
+import algos.AnytimeAlgorithm;
+import algos.KNN;
+import algos.UserBasedCollaborativeFiltering;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * This experiment compares the exact recommendations with the recommendations under a time budget
+ * per user, for different budgets : test accuracy, number of users whose recommendations were cut
+ * short, and the median, 99th percentile and maximum time spent on a user.
+ * 
+ * @author excelsior
+ *
+ */
+public class AnytimeRecommendationExpt 
+{
+	private static Logger LOG = Logger.getLogger(AnytimeRecommendationExpt.class);
+	
+	private static int JOB_RUNS = 5;
+	private static int CROSS_VALIDATION_FOLDS = 10;
+	private static int NUM_SONGS_TO_RECOMMEND = 10;
+	
+	private static List<String> anytimeAlgos = Lists.newArrayList(Constants.NAIVE_BAYES, 
+			Constants.USER_BASED_COLLABORATIVE_FILTERING, Constants.K_NEAREST_NEIGHBOUR);
+	
+	// Time budgets per user in micro seconds, zero for the exact recommendations
+	private static List<Long> timeBudgetValues = Lists.newArrayList(0L, 2000L, 500L, 100L);
+	
+	public static void main(String[] args)
+	{
+		String datasetName = args[0].trim();
+		Reader reader = new FileReader();
+		DataSet fullDataset = reader.createDataSet(datasetName);
+		
+		CrossValidationFactory datasetFactory = 
+			new CrossValidationFactory(fullDataset, CROSS_VALIDATION_FOLDS, true);
+		
+		// Users are recommended one at a time, which the algorithms would otherwise log every time
+		Logger.getLogger(UserBasedCollaborativeFiltering.class).setLevel(Level.WARN);
+		Logger.getLogger(KNN.class).setLevel(Level.WARN);
+		
+		LOG.info("Comparing exact and time bounded recommendations for dataset : " + datasetName);
+		for(int runId = 0; runId < JOB_RUNS; runId++)
+		 {
+			Map<String, DataSet> foldDatasets = datasetFactory.getDatasets(runId);
+			DataSet trainDataset = foldDatasets.get(Constants.TRAIN_DATASET);
+			DataSet testVisibleDataset = foldDatasets.get(Constants.TEST_VISIBLE_DATASET);
+			DataSet testHiddenDataset = foldDatasets.get(Constants.TEST_HIDDEN_DATASET);
+			
+			for(String algoName : anytimeAlgos) {
+				AnytimeAlgorithm algo = (AnytimeAlgorithm)Utility.getAlgorithmInstance(algoName, NUM_SONGS_TO_RECOMMEND);
+				algo.generateModel(trainDataset);
+				
+				for(long timeBudgetMicros : timeBudgetValues) {
+					algo.setTimeBudgetMicros(timeBudgetMicros);
+					
+					Map<String, List<Song>> recommendations = Maps.newHashMap();
+					List<String> testUsers = testVisibleDataset.getListOfUsers();
+					long[] userMicros = new long[testUsers.size()];
+					int numInexactUsers = 0;
+					for(int i = 0; i < testUsers.size(); i++) {
+						String user = testUsers.get(i);
+						DataSet userDataset = new DataSet(Collections.singletonMap(user, 
+								testVisibleDataset.getUserListeningHistory().get(user)), testVisibleDataset.getSongMap());
+						
+						long start = System.nanoTime();
+						recommendations.putAll(algo.recommend(userDataset));
+						userMicros[i] = (System.nanoTime() - start)/1000;
+						numInexactUsers += algo.getInexactUsers().size();
+					}
+					Arrays.sort(userMicros);
+					
+					double accuracy = Utility.getAccuracy(recommendations, testHiddenDataset);
+					LOG.info("Run " + runId + " : " + algoName + ", Budget = " + timeBudgetMicros + " us => Accuracy = " + 
+							accuracy + " %, Inexact users = " + numInexactUsers + ", Time per user = " + 
+							getPercentile(userMicros, 0.5) + " us (p50), " + getPercentile(userMicros, 0.99) + 
+							" us (p99), " + userMicros[userMicros.length - 1] + " us (max)");
+				}
+			}
+		 }
+	}
+	
+	/**
+	 * Gets a percentile of sorted values, by the nearest rank.
+	 */
+	private static long getPercentile(long[] sortedValues, double percentile)
+	{
+		int rank = (int)Math.ceil(percentile*sortedValues.length);
+		return sortedValues[Math.max(rank - 1, 0)];
+	}
+}
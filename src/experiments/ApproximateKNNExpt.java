@@ -0,0 +1,123 @@
+package experiments;
+
+import java.util.List;
+import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import models.Constants;
+import models.DataSet;
+
+import org.apache.log4j.Logger;
+
+import utils.Utility;
+import utils.data.CrossValidationFactory;
+import utils.data.FileReader;
+import utils.data.Reader;
+import algos.KNN;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Lists;
+
+/**
+ * This experiment compares the exact K-NN with the approximate K-NN (LSH index) for different
+ * number of hash tables : recall of the true K nearest neighbours, test accuracy and run time.
+ * 
+ * @author excelsior
+ *
+ */
+public class ApproximateKNNExpt 
+{
+	private static Logger LOG = Logger.getLogger(ApproximateKNNExpt.class);
+	
+	private static int JOB_RUNS = 5;
+	private static int CROSS_VALIDATION_FOLDS = 10;
+	private static int NUM_SONGS_TO_RECOMMEND = 10;
+	private static int NUM_NEIGHBOURS = 80;
+	private static int NUM_HASH_BITS = 4;
+	
+	private static List<Integer> numHashTablesValues = Lists.newArrayList(1, 2, 4, 8, 16, 32);
+	
+	public static void main(String[] args)
+	{
+		String datasetName = args[0].trim();
+		Reader reader = new FileReader();
+		DataSet fullDataset = reader.createDataSet(datasetName);
+		
+		CrossValidationFactory datasetFactory = 
+			new CrossValidationFactory(fullDataset, CROSS_VALIDATION_FOLDS, true);
+		
+		LOG.info("Comparing exact and approximate K-NN for dataset : " + datasetName);
+		for(int runId = 0; runId < JOB_RUNS; runId++)
+		 {
+			Map<String, DataSet> foldDatasets = datasetFactory.getDatasets(runId);
+			DataSet trainDataset = foldDatasets.get(Constants.TRAIN_DATASET);
+			DataSet testVisibleDataset = foldDatasets.get(Constants.TEST_VISIBLE_DATASET);
+			DataSet testHiddenDataset = foldDatasets.get(Constants.TEST_HIDDEN_DATASET);
+			
+			KNN exactKNN = new KNN(NUM_SONGS_TO_RECOMMEND);
+			exactKNN.setNumNeighbours(NUM_NEIGHBOURS);
+			
+			Stopwatch exactTimer = Stopwatch.createStarted();
+			double exactAccuracy = Utility.runAlgorithm(exactKNN, trainDataset, testVisibleDataset, 
+					testHiddenDataset);
+			LOG.info("Run " + runId + " : Exact => Accuracy = " + exactAccuracy + " %, Time = " + 
+					exactTimer.elapsed(TimeUnit.MILLISECONDS) + " ms");
+			
+			for(Integer numHashTables : numHashTablesValues) {
+				KNN approximateKNN = new KNN(NUM_SONGS_TO_RECOMMEND);
+				approximateKNN.setNumNeighbours(NUM_NEIGHBOURS);
+				approximateKNN.setApproximate(true);
+				approximateKNN.setNumHashTables(numHashTables);
+				approximateKNN.setNumHashBits(NUM_HASH_BITS);
+				
+				Stopwatch approximateTimer = Stopwatch.createStarted();
+				double approximateAccuracy = Utility.runAlgorithm(approximateKNN, trainDataset, 
+						testVisibleDataset, testHiddenDataset);
+				long approximateTime = approximateTimer.elapsed(TimeUnit.MILLISECONDS);
+				
+				// Generating the model again on the same train dataset, as every KNN instance shares it
+				exactKNN.generateModel(trainDataset);
+				approximateKNN.generateModel(trainDataset);
+				double recall = getNeighboursRecall(exactKNN, approximateKNN, testVisibleDataset);
+				
+				LOG.info("Run " + runId + " : Tables = " + numHashTables + " => Recall = " + recall + 
+						", Accuracy = " + approximateAccuracy + " % (" + (approximateAccuracy - exactAccuracy) + 
+						"), Time = " + approximateTime + " ms");
+			}
+		 }
+	}
+	
+	/**
+	 * Fraction of the true K nearest neighbours which are found by the approximate K-NN, averaged
+	 * over all the test users. Neighbours with a zero similarity are picked arbitrarily by the exact
+	 * K-NN, so they are not expected to be found.
+	 */
+	private static double getNeighboursRecall(KNN exactKNN, KNN approximateKNN, DataSet testVisibleDataset)
+	{
+		double sumRecall = 0.0;
+		int numUsers = 0;
+		for(String user : testVisibleDataset.getListOfUsers()) {
+			Map<String, Double> exactNeighbours = exactKNN.getNearestNeighbours(user, testVisibleDataset);
+			Set<String> approximateNeighbours = approximateKNN.getNearestNeighbours(user, testVisibleDataset).keySet();
+			
+			int numSimilarNeighbours = 0;
+			int numFoundNeighbours = 0;
+			for(Map.Entry<String, Double> entry : exactNeighbours.entrySet()) {
+				if(entry.getValue() > 0) {
+					++numSimilarNeighbours;
+					if(approximateNeighbours.contains(entry.getKey())) {
+						++numFoundNeighbours;
+					}
+				}
+			}
+			
+			if(numSimilarNeighbours > 0) {
+				sumRecall += numFoundNeighbours/(double)numSimilarNeighbours;
+				++numUsers;
+			}
+		}
+		
+		return (numUsers == 0) ? 1.0 : sumRecall/numUsers;
+	}
+}
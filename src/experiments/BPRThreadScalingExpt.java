@@ -0,0 +1,57 @@
+package experiments;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import models.DataSet;
+
+import org.apache.log4j.Logger;
+
+import utils.data.FileReader;
+import utils.data.Reader;
+import algos.BPR;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Lists;
+
+/**
+ * This experiment measures the training speed of the BPR algorithm on the full dataset, in epochs
+ * per second, for different number of threads updating the factors concurrently.
+ * 
+ * @author excelsior
+ *
+ */
+public class BPRThreadScalingExpt 
+{
+	private static Logger LOG = Logger.getLogger(BPRThreadScalingExpt.class);
+	
+	private static int NUM_SONGS_TO_RECOMMEND = 10;
+	private static int NUM_EPOCHS = 20;
+	
+	private static List<Integer> numThreadsValues = Lists.newArrayList(1, 2, 4, 8, 16);
+	
+	public static void main(String[] args)
+	{
+		String datasetName = args[0].trim();
+		Reader reader = new FileReader();
+		DataSet fullDataset = reader.createDataSet(datasetName);
+		
+		LOG.info("Measuring BPR thread scaling for dataset : " + datasetName);
+		double singleThreadEpochsPerSecond = 0.0;
+		for(Integer numThreads : numThreadsValues) {
+			BPR bpr = new BPR(NUM_SONGS_TO_RECOMMEND);
+			bpr.setNumEpochs(NUM_EPOCHS);
+			bpr.setNumThreads(numThreads);
+			
+			Stopwatch trainTimer = Stopwatch.createStarted();
+			bpr.generateModel(fullDataset);
+			double epochsPerSecond = NUM_EPOCHS/(trainTimer.elapsed(TimeUnit.MILLISECONDS)/1000.0);
+			if(numThreads == 1) {
+				singleThreadEpochsPerSecond = epochsPerSecond;
+			}
+			
+			LOG.info("Threads = " + numThreads + " => Epochs per second = " + epochsPerSecond + 
+					", Speedup = " + epochsPerSecond/singleThreadEpochsPerSecond);
+		}
+	}
+}
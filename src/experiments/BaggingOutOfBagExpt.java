@@ -0,0 +1,74 @@
+package experiments;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import models.Constants;
+import models.DataSet;
+
+import org.apache.log4j.Logger;
+
+import utils.Utility;
+import utils.data.CrossValidationFactory;
+import utils.data.FileReader;
+import utils.data.Reader;
+import algos.ensembles.Bagging;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Lists;
+
+/**
+ * This experiment compares the out-of-bag accuracy estimate of Bagging, from a single training on
+ * the full dataset, with its cross validation accuracy, along with the time taken by each. Every
+ * hypothesis is scored on at most as many users as there are in a test fold, among the users left
+ * out of its sample.
+ *
+ * @author excelsior
+ *
+ */
+public class BaggingOutOfBagExpt
+{
+	private static Logger LOG = Logger.getLogger(BaggingOutOfBagExpt.class);
+
+	private static int CROSS_VALIDATION_FOLDS = 10;
+	private static int NUM_SONGS_TO_RECOMMEND = 10;
+
+	private static List<String> algoNames = Lists.newArrayList(Constants.K_NEAREST_NEIGHBOUR,
+			Constants.NAIVE_BAYES);
+
+	public static void main(String[] args)
+	{
+		String datasetName = args[0].trim();
+		Reader reader = new FileReader();
+		DataSet fullDataset = reader.createDataSet(datasetName);
+
+		CrossValidationFactory datasetFactory =
+			new CrossValidationFactory(fullDataset, CROSS_VALIDATION_FOLDS, false);
+
+		LOG.info("Comparing out-of-bag and cross validation accuracy of Bagging for dataset : " + datasetName);
+		for(String algoName : algoNames) {
+			Bagging bagging = new Bagging(algoName, NUM_SONGS_TO_RECOMMEND);
+			
+			// Score at most as many users as there are in a test fold
+			bagging.setMaxOutOfBagUsers(fullDataset.getNumberOfUsers()/CROSS_VALIDATION_FOLDS);
+
+			Stopwatch outOfBagTimer = Stopwatch.createStarted();
+			bagging.generateModel(fullDataset);
+			double outOfBagAccuracy = bagging.getOutOfBagAccuracy();
+			LOG.info(algoName + " : Out-of-bag => Accuracy = " + outOfBagAccuracy + " %, Time = " +
+					outOfBagTimer.elapsed(TimeUnit.MILLISECONDS) + " ms");
+
+			Stopwatch crossValidationTimer = Stopwatch.createStarted();
+			double sumAccuracy = 0.0;
+			for(int runId = 0; runId < CROSS_VALIDATION_FOLDS; runId++) {
+				Map<String, DataSet> foldDatasets = datasetFactory.getDatasets(runId);
+				sumAccuracy += Utility.runAlgorithm(bagging, foldDatasets.get(Constants.TRAIN_DATASET),
+						foldDatasets.get(Constants.TEST_VISIBLE_DATASET),
+						foldDatasets.get(Constants.TEST_HIDDEN_DATASET));
+			}
+			LOG.info(algoName + " : Cross validation => Accuracy = " + sumAccuracy/CROSS_VALIDATION_FOLDS +
+					" %, Time = " + crossValidationTimer.elapsed(TimeUnit.MILLISECONDS) + " ms");
+		}
+	}
+}
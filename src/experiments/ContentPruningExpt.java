@@ -0,0 +1,78 @@
+package experiments;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import models.Constants;
+import models.DataSet;
+
+import org.apache.log4j.Logger;
+
+import utils.Utility;
+import utils.data.CrossValidationFactory;
+import utils.data.FileReader;
+import utils.data.Reader;
+import algos.ContentBased;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Lists;
+
+/**
+ * This experiment compares the content-based recommender retrieving the top songs with MaxScore pruning
+ * and by scoring every song sharing a term with the query, for different number of query terms :
+ * test accuracy, which should not change with the pruning, and time per test user.
+ *
+ * The content is read from the content files named by {@link Constants#CONTENT_DATASET}.
+ *
+ * @author excelsior
+ *
+ */
+public class ContentPruningExpt
+{
+	private static Logger LOG = Logger.getLogger(ContentPruningExpt.class);
+	
+	private static int JOB_RUNS = 5;
+	private static int CROSS_VALIDATION_FOLDS = 10;
+	private static int NUM_SONGS_TO_RECOMMEND = 10;
+	
+	private static List<Integer> maxQueryTermsValues = Lists.newArrayList(16, 32, 64);
+	
+	public static void main(String[] args)
+	{
+		String datasetName = args[0].trim();
+		Reader reader = new FileReader();
+		DataSet fullDataset = reader.createDataSet(datasetName);
+		
+		CrossValidationFactory datasetFactory =
+			new CrossValidationFactory(fullDataset, CROSS_VALIDATION_FOLDS, true);
+		
+		// The index does not depend on the fold nor on the settings compared, it is built only once
+		ContentBased algo = new ContentBased(NUM_SONGS_TO_RECOMMEND);
+		
+		LOG.info("Comparing content-based retrieval with and without pruning for dataset : " + datasetName);
+		for(int runId = 0; runId < JOB_RUNS; runId++)
+		 {
+			Map<String, DataSet> foldDatasets = datasetFactory.getDatasets(runId);
+			DataSet trainDataset = foldDatasets.get(Constants.TRAIN_DATASET);
+			DataSet testVisibleDataset = foldDatasets.get(Constants.TEST_VISIBLE_DATASET);
+			DataSet testHiddenDataset = foldDatasets.get(Constants.TEST_HIDDEN_DATASET);
+			int numTestUsers = testVisibleDataset.getListOfUsers().size();
+			
+			for(int maxQueryTerms : maxQueryTermsValues) {
+				for(boolean pruning : new boolean[] {false, true}) {
+					algo.setMaxQueryTerms(maxQueryTerms);
+					algo.setPruning(pruning);
+					
+					// Read the content and build the index before timing the recommendations only
+					algo.generateModel(trainDataset);
+					Stopwatch timer = Stopwatch.createStarted();
+					double accuracy = Utility.runAlgorithm(algo, trainDataset, testVisibleDataset, testHiddenDataset);
+					LOG.info("Run " + runId + " : Query terms = " + maxQueryTerms + ", Pruning = " + pruning +
+							" => Accuracy = " + accuracy + " %, Time per user = " +
+							timer.elapsed(TimeUnit.MICROSECONDS)/Math.max(1, numTestUsers) + " us");
+				}
+			}
+		 }
+	}
+}
@@ -0,0 +1,126 @@
+package experiments;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import models.Constants;
+import models.DataSet;
+
+import org.apache.log4j.Logger;
+
+import utils.DenseVectors;
+import utils.Utility;
+import utils.data.CrossValidationFactory;
+import utils.data.FileReader;
+import utils.data.Reader;
+import algos.KNN;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Lists;
+
+/**
+ * This benchmark measures the speedup of the dense dot product kernel used by K-NN, first on its
+ * own against the boxed and the plain loops, then on K-NN with and without dense popular songs.
+ * 
+ * @author excelsior
+ *
+ */
+public class DotProductBenchmark 
+{
+	private static Logger LOG = Logger.getLogger(DotProductBenchmark.class);
+	
+	private static int VECTOR_LENGTH = 64;
+	private static int NUM_VECTORS = 4096;
+	private static int NUM_ITERATIONS = 200;
+	private static int NUM_SONGS_TO_RECOMMEND = 10;
+	
+	private static List<Integer> numDenseSongsValues = Lists.newArrayList(0, 16, 64, 256);
+	
+	public static void main(String[] args)
+	{
+		benchmarkKernel();
+		
+		if(args.length > 0) {
+			benchmarkKNN(args[0].trim());
+		}
+	}
+	
+	private static void benchmarkKernel()
+	{
+		Random random = new Random(42);
+		int[][] vectors = new int[NUM_VECTORS][VECTOR_LENGTH];
+		List<List<Integer>> boxedVectors = Lists.newArrayList();
+		for(int[] vector : vectors) {
+			List<Integer> boxedVector = Lists.newArrayList();
+			for(int i = 0; i < VECTOR_LENGTH; i++) {
+				vector[i] = random.nextInt(5);
+				boxedVector.add(vector[i]);
+			}
+			boxedVectors.add(boxedVector);
+		}
+		
+		// Each kernel is run twice, the first run warms up the JIT compiler.
+		for(int run = 0; run < 2; run++) {
+			Stopwatch boxedTimer = Stopwatch.createStarted();
+			long boxedSum = 0;
+			for(int iteration = 0; iteration < NUM_ITERATIONS; iteration++) {
+				List<Integer> query = boxedVectors.get(iteration % NUM_VECTORS);
+				for(List<Integer> vector : boxedVectors) {
+					for(int i = 0; i < VECTOR_LENGTH; i++) {
+						boxedSum += query.get(i)*vector.get(i);
+					}
+				}
+			}
+			long boxedTime = boxedTimer.elapsed(TimeUnit.MICROSECONDS);
+			
+			Stopwatch plainTimer = Stopwatch.createStarted();
+			long plainSum = 0;
+			for(int iteration = 0; iteration < NUM_ITERATIONS; iteration++) {
+				int[] query = vectors[iteration % NUM_VECTORS];
+				for(int[] vector : vectors) {
+					for(int i = 0; i < VECTOR_LENGTH; i++) {
+						plainSum += (long)query[i]*vector[i];
+					}
+				}
+			}
+			long plainTime = plainTimer.elapsed(TimeUnit.MICROSECONDS);
+			
+			Stopwatch kernelTimer = Stopwatch.createStarted();
+			long kernelSum = 0;
+			for(int iteration = 0; iteration < NUM_ITERATIONS; iteration++) {
+				int[] query = vectors[iteration % NUM_VECTORS];
+				for(int[] vector : vectors) {
+					kernelSum += DenseVectors.dotProduct(query, vector, VECTOR_LENGTH);
+				}
+			}
+			long kernelTime = kernelTimer.elapsed(TimeUnit.MICROSECONDS);
+			
+			LOG.info("Run " + run + " : Boxed = " + boxedTime + " us, Plain = " + plainTime + " us, Kernel = " + 
+					kernelTime + " us (sums " + boxedSum + ", " + plainSum + ", " + kernelSum + ")");
+		}
+	}
+	
+	private static void benchmarkKNN(String datasetName)
+	{
+		Reader reader = new FileReader();
+		DataSet fullDataset = reader.createDataSet(datasetName);
+		CrossValidationFactory datasetFactory = new CrossValidationFactory(fullDataset, 10, false);
+		
+		Map<String, DataSet> foldDatasets = datasetFactory.getDatasets(0);
+		DataSet trainDataset = foldDatasets.get(Constants.TRAIN_DATASET);
+		DataSet testVisibleDataset = foldDatasets.get(Constants.TEST_VISIBLE_DATASET);
+		DataSet testHiddenDataset = foldDatasets.get(Constants.TEST_HIDDEN_DATASET);
+		
+		for(Integer numDenseSongs : numDenseSongsValues) {
+			KNN knnAlgo = new KNN(NUM_SONGS_TO_RECOMMEND);
+			knnAlgo.setNumDenseSongs(numDenseSongs);
+			
+			Stopwatch timer = Stopwatch.createStarted();
+			double accuracy = Utility.runAlgorithm(knnAlgo, trainDataset, testVisibleDataset, testHiddenDataset);
+			LOG.info("Dense songs = " + numDenseSongs + " => Accuracy = " + accuracy + " %, Time = " + 
+					timer.elapsed(TimeUnit.MILLISECONDS) + " ms");
+		}
+	}
+}
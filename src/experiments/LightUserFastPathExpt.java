@@ -0,0 +1,82 @@
+package experiments;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import models.Constants;
+import models.DataSet;
+
+import org.apache.log4j.Logger;
+
+import utils.Utility;
+import utils.data.CrossValidationFactory;
+import utils.data.FileReader;
+import utils.data.Reader;
+import algos.Algorithm;
+import algos.LightUserFastPath;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Lists;
+
+/**
+ * This experiment compares the algorithms recommending to all the users with the same algorithms
+ * behind the light-user fast path, for different history lengths of the light users : test
+ * accuracy, run time and share of the users answered from the lookup tables.
+ * 
+ * @author excelsior
+ *
+ */
+public class LightUserFastPathExpt 
+{
+	private static Logger LOG = Logger.getLogger(LightUserFastPathExpt.class);
+	
+	private static int JOB_RUNS = 5;
+	private static int CROSS_VALIDATION_FOLDS = 10;
+	private static int NUM_SONGS_TO_RECOMMEND = 10;
+	
+	private static List<String> scorerAlgos = Lists.newArrayList(Constants.NAIVE_BAYES, 
+			Constants.USER_BASED_COLLABORATIVE_FILTERING, Constants.K_NEAREST_NEIGHBOUR);
+	private static List<Integer> maxLightHistoryLengthValues = Lists.newArrayList(1, 2, 3, 5);
+	
+	public static void main(String[] args)
+	{
+		String datasetName = args[0].trim();
+		Reader reader = new FileReader();
+		DataSet fullDataset = reader.createDataSet(datasetName);
+		
+		CrossValidationFactory datasetFactory = 
+			new CrossValidationFactory(fullDataset, CROSS_VALIDATION_FOLDS, true);
+		
+		LOG.info("Comparing full and fast path recommendations for dataset : " + datasetName);
+		for(int runId = 0; runId < JOB_RUNS; runId++)
+		 {
+			Map<String, DataSet> foldDatasets = datasetFactory.getDatasets(runId);
+			DataSet trainDataset = foldDatasets.get(Constants.TRAIN_DATASET);
+			DataSet testVisibleDataset = foldDatasets.get(Constants.TEST_VISIBLE_DATASET);
+			DataSet testHiddenDataset = foldDatasets.get(Constants.TEST_HIDDEN_DATASET);
+			
+			for(String algoName : scorerAlgos) {
+				Algorithm fullAlgo = Utility.getAlgorithmInstance(algoName, NUM_SONGS_TO_RECOMMEND);
+				Stopwatch fullTimer = Stopwatch.createStarted();
+				double fullAccuracy = Utility.runAlgorithm(fullAlgo, trainDataset, testVisibleDataset, 
+						testHiddenDataset);
+				LOG.info("Run " + runId + " : " + algoName + " => Accuracy = " + fullAccuracy + " %, Time = " + 
+						fullTimer.elapsed(TimeUnit.MILLISECONDS) + " ms");
+				
+				for(int maxLightHistoryLength : maxLightHistoryLengthValues) {
+					LightUserFastPath fastPath = new LightUserFastPath(algoName, NUM_SONGS_TO_RECOMMEND);
+					fastPath.setMaxLightHistoryLength(maxLightHistoryLength);
+					
+					Stopwatch fastPathTimer = Stopwatch.createStarted();
+					double fastPathAccuracy = Utility.runAlgorithm(fastPath, trainDataset, testVisibleDataset, 
+							testHiddenDataset);
+					LOG.info("Run " + runId + " : " + algoName + ", light users up to " + maxLightHistoryLength + 
+							" songs => Accuracy = " + fastPathAccuracy + " % (" + (fastPathAccuracy - fullAccuracy) + 
+							"), Time = " + fastPathTimer.elapsed(TimeUnit.MILLISECONDS) + " ms, Light users = " + 
+							fastPath.getNumLightUsers() + " / " + testVisibleDataset.getListOfUsers().size());
+				}
+			}
+		 }
+	}
+}
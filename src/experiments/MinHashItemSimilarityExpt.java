@@ -0,0 +1,80 @@
+package experiments;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import models.Constants;
+import models.DataSet;
+
+import org.apache.log4j.Logger;
+
+import utils.Utility;
+import utils.data.CrossValidationFactory;
+import utils.data.FileReader;
+import utils.data.Reader;
+import algos.ItemBasedCollaborativeFiltering;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Lists;
+
+/**
+ * This experiment compares the exact song similarities of the item-based collaborative filtering
+ * with the similarities estimated from MinHash signatures, for different number of bands and rows
+ * per band of the LSH index : test accuracy and run time.
+ * 
+ * @author excelsior
+ *
+ */
+public class MinHashItemSimilarityExpt 
+{
+	private static Logger LOG = Logger.getLogger(MinHashItemSimilarityExpt.class);
+	
+	private static int JOB_RUNS = 5;
+	private static int CROSS_VALIDATION_FOLDS = 10;
+	private static int NUM_SONGS_TO_RECOMMEND = 10;
+	
+	// Pairs of (number of bands, rows per band)
+	private static List<int[]> bandsValues = Lists.newArrayList(new int[] {16, 1}, new int[] {32, 2}, 
+			new int[] {64, 2}, new int[] {32, 4});
+	
+	public static void main(String[] args)
+	{
+		String datasetName = args[0].trim();
+		Reader reader = new FileReader();
+		DataSet fullDataset = reader.createDataSet(datasetName);
+		
+		CrossValidationFactory datasetFactory = 
+			new CrossValidationFactory(fullDataset, CROSS_VALIDATION_FOLDS, true);
+		
+		LOG.info("Comparing exact and MinHash song similarities for dataset : " + datasetName);
+		for(int runId = 0; runId < JOB_RUNS; runId++)
+		 {
+			Map<String, DataSet> foldDatasets = datasetFactory.getDatasets(runId);
+			DataSet trainDataset = foldDatasets.get(Constants.TRAIN_DATASET);
+			DataSet testVisibleDataset = foldDatasets.get(Constants.TEST_VISIBLE_DATASET);
+			DataSet testHiddenDataset = foldDatasets.get(Constants.TEST_HIDDEN_DATASET);
+			
+			ItemBasedCollaborativeFiltering exactAlgo = new ItemBasedCollaborativeFiltering(NUM_SONGS_TO_RECOMMEND);
+			Stopwatch exactTimer = Stopwatch.createStarted();
+			double exactAccuracy = Utility.runAlgorithm(exactAlgo, trainDataset, testVisibleDataset, 
+					testHiddenDataset);
+			LOG.info("Run " + runId + " : Exact => Accuracy = " + exactAccuracy + " %, Time = " + 
+					exactTimer.elapsed(TimeUnit.MILLISECONDS) + " ms");
+			
+			for(int[] bands : bandsValues) {
+				ItemBasedCollaborativeFiltering minHashAlgo = new ItemBasedCollaborativeFiltering(NUM_SONGS_TO_RECOMMEND);
+				minHashAlgo.setMinHash(true);
+				minHashAlgo.setNumHashBands(bands[0]);
+				minHashAlgo.setNumRowsPerBand(bands[1]);
+				
+				Stopwatch minHashTimer = Stopwatch.createStarted();
+				double minHashAccuracy = Utility.runAlgorithm(minHashAlgo, trainDataset, testVisibleDataset, 
+						testHiddenDataset);
+				LOG.info("Run " + runId + " : Bands = " + bands[0] + " x " + bands[1] + " rows => Accuracy = " + 
+						minHashAccuracy + " % (" + (minHashAccuracy - exactAccuracy) + "), Time = " + 
+						minHashTimer.elapsed(TimeUnit.MILLISECONDS) + " ms");
+			}
+		 }
+	}
+}
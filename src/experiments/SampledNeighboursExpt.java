@@ -0,0 +1,120 @@
+package experiments;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import models.Constants;
+import models.DataSet;
+import models.Song;
+
+import org.apache.log4j.Logger;
+
+import utils.Utility;
+import utils.data.CrossValidationFactory;
+import utils.data.FileReader;
+import utils.data.Reader;
+import algos.KNN;
+import algos.UserBasedCollaborativeFiltering;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Lists;
+
+/**
+ * This experiment compares the exact user-based collaborative filtering and K-NN with their sampled
+ * modes, for different target errors on the overlap of the top N songs : chosen sample size, 
+ * estimated and measured overlap with the exact recommendations, test accuracy and run time.
+ * 
+ * The estimated accuracy difference assumes that the exact songs which are replaced are as good as
+ * the other recommended songs, and that their replacements are never listened.
+ * 
+ * @author excelsior
+ *
+ */
+public class SampledNeighboursExpt 
+{
+	private static Logger LOG = Logger.getLogger(SampledNeighboursExpt.class);
+	
+	private static int JOB_RUNS = 5;
+	private static int CROSS_VALIDATION_FOLDS = 10;
+	private static int NUM_SONGS_TO_RECOMMEND = 10;
+	
+	private static List<Double> maxOverlapErrorValues = Lists.newArrayList(0.05, 0.1, 0.2);
+	
+	public static void main(String[] args)
+	{
+		String datasetName = args[0].trim();
+		Reader reader = new FileReader();
+		DataSet fullDataset = reader.createDataSet(datasetName);
+		
+		CrossValidationFactory datasetFactory = 
+			new CrossValidationFactory(fullDataset, CROSS_VALIDATION_FOLDS, true);
+		
+		LOG.info("Comparing exact and sampled neighbours for dataset : " + datasetName);
+		for(int runId = 0; runId < JOB_RUNS; runId++)
+		 {
+			Map<String, DataSet> foldDatasets = datasetFactory.getDatasets(runId);
+			DataSet trainDataset = foldDatasets.get(Constants.TRAIN_DATASET);
+			DataSet testVisibleDataset = foldDatasets.get(Constants.TEST_VISIBLE_DATASET);
+			DataSet testHiddenDataset = foldDatasets.get(Constants.TEST_HIDDEN_DATASET);
+			
+			UserBasedCollaborativeFiltering exactUserBased = new UserBasedCollaborativeFiltering(NUM_SONGS_TO_RECOMMEND);
+			Stopwatch exactUserBasedTimer = Stopwatch.createStarted();
+			exactUserBased.generateModel(trainDataset);
+			Map<String, List<Song>> exactUserBasedRecommendations = exactUserBased.recommend(testVisibleDataset);
+			double exactUserBasedAccuracy = Utility.getAccuracy(exactUserBasedRecommendations, testHiddenDataset);
+			LOG.info("Run " + runId + " : User-based, exact => Accuracy = " + exactUserBasedAccuracy + 
+					" %, Time = " + exactUserBasedTimer.elapsed(TimeUnit.MILLISECONDS) + " ms");
+			
+			KNN exactKNN = new KNN(NUM_SONGS_TO_RECOMMEND);
+			Stopwatch exactKNNTimer = Stopwatch.createStarted();
+			exactKNN.generateModel(trainDataset);
+			Map<String, List<Song>> exactKNNRecommendations = exactKNN.recommend(testVisibleDataset);
+			double exactKNNAccuracy = Utility.getAccuracy(exactKNNRecommendations, testHiddenDataset);
+			LOG.info("Run " + runId + " : K-NN, exact => Accuracy = " + exactKNNAccuracy + 
+					" %, Time = " + exactKNNTimer.elapsed(TimeUnit.MILLISECONDS) + " ms");
+			
+			for(double maxOverlapError : maxOverlapErrorValues) {
+				UserBasedCollaborativeFiltering sampledUserBased = new UserBasedCollaborativeFiltering(NUM_SONGS_TO_RECOMMEND);
+				sampledUserBased.setSampled(true);
+				sampledUserBased.setMaxOverlapError(maxOverlapError);
+				
+				Stopwatch sampledUserBasedTimer = Stopwatch.createStarted();
+				sampledUserBased.generateModel(trainDataset);
+				Map<String, List<Song>> sampledUserBasedRecommendations = sampledUserBased.recommend(testVisibleDataset);
+				long sampledUserBasedTime = sampledUserBasedTimer.elapsed(TimeUnit.MILLISECONDS);
+				logComparison(runId, "User-based, " + sampledUserBased.getSampledListenersPerSong() + 
+						" listeners per song", maxOverlapError, sampledUserBased.getEstimatedOverlap(), 
+						exactUserBasedRecommendations, sampledUserBasedRecommendations, exactUserBasedAccuracy, 
+						testHiddenDataset, sampledUserBasedTime);
+				
+				KNN sampledKNN = new KNN(NUM_SONGS_TO_RECOMMEND);
+				sampledKNN.setSampled(true);
+				sampledKNN.setMaxOverlapError(maxOverlapError);
+				
+				Stopwatch sampledKNNTimer = Stopwatch.createStarted();
+				sampledKNN.generateModel(trainDataset);
+				Map<String, List<Song>> sampledKNNRecommendations = sampledKNN.recommend(testVisibleDataset);
+				long sampledKNNTime = sampledKNNTimer.elapsed(TimeUnit.MILLISECONDS);
+				logComparison(runId, "K-NN, " + sampledKNN.getSampledListenersPerSong() + 
+						" listeners per song", maxOverlapError, 
+						sampledKNN.getEstimatedOverlap(), exactKNNRecommendations, sampledKNNRecommendations, 
+						exactKNNAccuracy, testHiddenDataset, sampledKNNTime);
+			}
+		 }
+	}
+	
+	private static void logComparison(int runId, String mode, double maxOverlapError, double estimatedOverlap, 
+			Map<String, List<Song>> exactRecommendations, Map<String, List<Song>> sampledRecommendations, 
+			double exactAccuracy, DataSet testHiddenDataset, long time)
+	{
+		double measuredOverlap = Utility.getTopNOverlap(exactRecommendations, sampledRecommendations);
+		double sampledAccuracy = Utility.getAccuracy(sampledRecommendations, testHiddenDataset);
+		double estimatedAccuracyDifference = -(1.0 - estimatedOverlap)*exactAccuracy;
+		
+		LOG.info("Run " + runId + " : " + mode + " (max error " + maxOverlapError + ") => Overlap = " + 
+				estimatedOverlap*100 + " % estimated, " + measuredOverlap + " % measured, Accuracy = " + 
+				sampledAccuracy + " % (" + estimatedAccuracyDifference + " estimated, " + 
+				(sampledAccuracy - exactAccuracy) + " measured), Time = " + time + " ms");
+	}
+}
@@ -0,0 +1,82 @@
+package experiments;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import models.Constants;
+import models.DataSet;
+
+import org.apache.log4j.Logger;
+
+import utils.Utility;
+import utils.data.CrossValidationFactory;
+import utils.data.FileReader;
+import utils.data.Reader;
+import algos.Algorithm;
+import algos.pipeline.TwoStagePipeline;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Lists;
+
+/**
+ * This experiment compares the algorithms scoring all the songs with the same algorithms scoring
+ * only the candidates of the two-stage pipeline, for different number of candidates per generator :
+ * test accuracy, run time and number of candidates per user.
+ * 
+ * @author excelsior
+ *
+ */
+public class TwoStagePipelineExpt 
+{
+	private static Logger LOG = Logger.getLogger(TwoStagePipelineExpt.class);
+	
+	private static int JOB_RUNS = 5;
+	private static int CROSS_VALIDATION_FOLDS = 10;
+	private static int NUM_SONGS_TO_RECOMMEND = 10;
+	
+	private static List<String> scorerAlgos = Lists.newArrayList(Constants.NAIVE_BAYES, 
+			Constants.USER_BASED_COLLABORATIVE_FILTERING, Constants.K_NEAREST_NEIGHBOUR);
+	private static List<Integer> numCandidatesValues = Lists.newArrayList(50, 200, 500);
+	
+	public static void main(String[] args)
+	{
+		String datasetName = args[0].trim();
+		Reader reader = new FileReader();
+		DataSet fullDataset = reader.createDataSet(datasetName);
+		
+		CrossValidationFactory datasetFactory = 
+			new CrossValidationFactory(fullDataset, CROSS_VALIDATION_FOLDS, true);
+		
+		LOG.info("Comparing full and two-stage scoring for dataset : " + datasetName);
+		for(int runId = 0; runId < JOB_RUNS; runId++)
+		 {
+			Map<String, DataSet> foldDatasets = datasetFactory.getDatasets(runId);
+			DataSet trainDataset = foldDatasets.get(Constants.TRAIN_DATASET);
+			DataSet testVisibleDataset = foldDatasets.get(Constants.TEST_VISIBLE_DATASET);
+			DataSet testHiddenDataset = foldDatasets.get(Constants.TEST_HIDDEN_DATASET);
+			
+			for(String algoName : scorerAlgos) {
+				Algorithm fullAlgo = Utility.getAlgorithmInstance(algoName, NUM_SONGS_TO_RECOMMEND);
+				Stopwatch fullTimer = Stopwatch.createStarted();
+				double fullAccuracy = Utility.runAlgorithm(fullAlgo, trainDataset, testVisibleDataset, 
+						testHiddenDataset);
+				LOG.info("Run " + runId + " : " + algoName + " => Accuracy = " + fullAccuracy + " %, Time = " + 
+						fullTimer.elapsed(TimeUnit.MILLISECONDS) + " ms");
+				
+				for(int numCandidates : numCandidatesValues) {
+					TwoStagePipeline pipeline = new TwoStagePipeline(algoName, NUM_SONGS_TO_RECOMMEND);
+					pipeline.setNumCandidatesPerGenerator(numCandidates);
+					
+					Stopwatch pipelineTimer = Stopwatch.createStarted();
+					double pipelineAccuracy = Utility.runAlgorithm(pipeline, trainDataset, testVisibleDataset, 
+							testHiddenDataset);
+					LOG.info("Run " + runId + " : " + algoName + ", " + numCandidates + " candidates per generator" + 
+							" => Accuracy = " + pipelineAccuracy + " % (" + (pipelineAccuracy - fullAccuracy) + 
+							"), Time = " + pipelineTimer.elapsed(TimeUnit.MILLISECONDS) + " ms, Candidates = " + 
+							pipeline.getAverageNumCandidates() + " per user");
+				}
+			}
+		 }
+	}
+}
@@ -0,0 +1,227 @@
+package models;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Class to represent a sample of a dataset drawn with replacement, as a view over the original
+ * dataset : every (user, song) interaction of the dataset is given the number of times it was
+ * drawn, so that drawing a sample only costs an array of counts.
+ *
+ * @author excelsior
+ *
+ */
+public class BootstrapSample
+{
+	/* Member Variables */
+	private Interactions mInteractions = null;
+	private int[] mMultiplicity = null;			// Number of times each interaction was drawn
+	private int mNumSampledInteractions = 0;	// Number of distinct interactions drawn
+
+	/**
+	 * Draws as many interactions as there are in the dataset, uniformly with replacement.
+	 *
+	 * @param interactions	Interactions of the base dataset
+	 * @param seed			Seed of the random draws, so that every sample can be drawn on its own thread
+	 */
+	public BootstrapSample(Interactions interactions, long seed)
+	{
+		this(interactions, seed, false);
+	}
+
+	/**
+	 * Draws as many interactions as there are in the dataset, or as many users as there are in the
+	 * dataset with all their interactions, uniformly with replacement. About 1/e of the users are
+	 * left out of a sample drawn over users, while a sample drawn over interactions leaves out all
+	 * the N interactions of a user with a probability of about e^-N only.
+	 *
+	 * @param interactions	Interactions of the base dataset
+	 * @param seed			Seed of the random draws, so that every sample can be drawn on its own thread
+	 * @param overUsers		Whether users are drawn instead of interactions
+	 */
+	public BootstrapSample(Interactions interactions, long seed, boolean overUsers)
+	{
+		mInteractions = interactions;
+
+		int numInteractions = interactions.getNumInteractions();
+		mMultiplicity = new int[numInteractions];
+		Random random = new Random(seed);
+		if(!overUsers) {
+			for(int i = 0; i < numInteractions; i++) {
+				if(mMultiplicity[random.nextInt(numInteractions)]++ == 0) {
+					++mNumSampledInteractions;
+				}
+			}
+			return;
+		}
+
+		int numUsers = interactions.getNumUsers();
+		for(int i = 0; i < numUsers; i++) {
+			int user = random.nextInt(numUsers);
+			int userStart = interactions.getUserStart(user);
+			int userEnd = interactions.getUserStart(user + 1);
+			if(mMultiplicity[userStart] == 0) {
+				mNumSampledInteractions += userEnd - userStart;
+			}
+			for(int interaction = userStart; interaction < userEnd; interaction++) {
+				++mMultiplicity[interaction];
+			}
+		}
+	}
+
+	public Interactions getInteractions()
+	{
+		return mInteractions;
+	}
+
+	public DataSet getDataSet()
+	{
+		return mInteractions.getDataSet();
+	}
+
+	/**
+	 * Get the number of times an interaction was drawn, zero if it is out of the sample.
+	 */
+	public int getMultiplicity(int interaction)
+	{
+		return mMultiplicity[interaction];
+	}
+
+	public int getNumSampledInteractions()
+	{
+		return mNumSampledInteractions;
+	}
+
+	/**
+	 * Get the song to playcount entries of a user which were drawn at least once.
+	 * @param user		Index of the user in the interactions
+	 * @return			Entries of the listening history of the user in the base dataset
+	 */
+	public List<Map.Entry<String, Integer>> getSampledHistory(int user)
+	{
+		List<Map.Entry<String, Integer>> sampledHistory = new ArrayList<Map.Entry<String, Integer>>();
+		for(int i = mInteractions.getUserStart(user); i < mInteractions.getUserStart(user + 1); i++) {
+			if(mMultiplicity[i] > 0) {
+				sampledHistory.add(mInteractions.getEntry(i));
+			}
+		}
+		return sampledHistory;
+	}
+
+	/**
+	 * Get the song to playcount entries of a user which were never drawn, i.e. left out of the sample.
+	 * @param user		Index of the user in the interactions
+	 * @return			Entries of the listening history of the user in the base dataset
+	 */
+	public List<Map.Entry<String, Integer>> getOutOfBagHistory(int user)
+	{
+		List<Map.Entry<String, Integer>> outOfBagHistory = new ArrayList<Map.Entry<String, Integer>>();
+		for(int i = mInteractions.getUserStart(user); i < mInteractions.getUserStart(user + 1); i++) {
+			if(mMultiplicity[i] == 0) {
+				outOfBagHistory.add(mInteractions.getEntry(i));
+			}
+		}
+		return outOfBagHistory;
+	}
+
+	/**
+	 * Materializes the interactions drawn at least once as a new dataset, for the algorithms which
+	 * cannot be trained on the sample directly.
+	 */
+	public DataSet toDataSet()
+	{
+		Map<String, Map<String, Integer>> listeningHistory = Maps.newHashMap();
+		Map<String, Song> songMap = Maps.newHashMap();
+		for(int user = 0; user < mInteractions.getNumUsers(); user++) {
+			String userID = mInteractions.getUser(user);
+			Map<String, Integer> songsPlayCountMap = null;
+			for(int i = mInteractions.getUserStart(user); i < mInteractions.getUserStart(user + 1); i++) {
+				if(mMultiplicity[i] == 0) {
+					continue;
+				}
+
+				Map.Entry<String, Integer> entry = mInteractions.getEntry(i);
+				if(songsPlayCountMap == null) {
+					songsPlayCountMap = new HashMap<String, Integer>();
+					listeningHistory.put(userID, songsPlayCountMap);
+				}
+				songsPlayCountMap.put(entry.getKey(), entry.getValue());
+
+				Song song = songMap.get(entry.getKey());
+				if(song == null) {
+					song = new Song(entry.getKey(), new ArrayList<String>());
+					songMap.put(entry.getKey(), song);
+				}
+				song.getListenersList().add(userID);
+			}
+		}
+
+		return new DataSet(listeningHistory, songMap);
+	}
+
+	/**
+	 * All the interactions of a dataset, numbered user after user. Built once per dataset and
+	 * shared by all the samples drawn from it.
+	 */
+	public static class Interactions
+	{
+		private DataSet mDataSet = null;
+		private String[] mUsers = null;
+		private int[] mUserStarts = null;						// First interaction of each user
+		private List<Map.Entry<String, Integer>> mEntries = null;	// Song to playcount entry of each interaction
+
+		public Interactions(DataSet dataset)
+		{
+			mDataSet = dataset;
+
+			Map<String, Map<String, Integer>> userListeningHistory = dataset.getUserListeningHistory();
+			mUsers = userListeningHistory.keySet().toArray(new String[userListeningHistory.size()]);
+			mUserStarts = new int[mUsers.length + 1];
+			mEntries = new ArrayList<Map.Entry<String, Integer>>(dataset.getDataSetSize());
+			for(int user = 0; user < mUsers.length; user++) {
+				mUserStarts[user] = mEntries.size();
+				mEntries.addAll(userListeningHistory.get(mUsers[user]).entrySet());
+			}
+			mUserStarts[mUsers.length] = mEntries.size();
+		}
+
+		public DataSet getDataSet()
+		{
+			return mDataSet;
+		}
+
+		public int getNumUsers()
+		{
+			return mUsers.length;
+		}
+
+		public int getNumInteractions()
+		{
+			return mEntries.size();
+		}
+
+		public String getUser(int user)
+		{
+			return mUsers[user];
+		}
+
+		/**
+		 * Get the first interaction of a user. The interactions of the user end where the ones of the
+		 * next user start.
+		 */
+		public int getUserStart(int user)
+		{
+			return mUserStarts[user];
+		}
+
+		public Map.Entry<String, Integer> getEntry(int interaction)
+		{
+			return mEntries.get(interaction);
+		}
+	}
+}
@@ -28,13 +28,26 @@ public class Constants {
 	public static final String NAIVE_BAYES 			= 	"Naive Bayes Algorithm";
 	public static final String USER_BASED_COLLABORATIVE_FILTERING = "User based collaborative filtering algorithm";
 	public static final String ITEM_BASED_COLLABORATIVE_FILTERING = "Item based collaborative filtering algorithm";
+	public static final String IMPLICIT_ALS			=	"Implicit feedback ALS matrix factorization algorithm";
+	public static final String BPR					=	"Bayesian personalized ranking algorithm";
+	public static final String P3_ALPHA				=	"P3-alpha random walk algorithm";
+	public static final String CONTENT_BASED		=	"Content based (tags and lyrics) algorithm";
 	public static final String BAGGING_NAIVE_BAYES 	= "Bagging (Naive Bayes) algorithm";
 	public static final String BAGGING_ITEM_BASED 	= "Bagging (Item-Based CollabFiltering) algorithm";
 	public static final String BAGGING_KNN 			= "Bagging (KNN) algorithm";
 	public static final String BAGGING_USER_BASED	= "Bagging (User-Based CollabFiltering) algorithm";
+	public static final String PIPELINE_NAIVE_BAYES	= "Two-stage pipeline (Naive Bayes) algorithm";
+	public static final String PIPELINE_KNN			= "Two-stage pipeline (KNN) algorithm";
+	public static final String PIPELINE_USER_BASED	= "Two-stage pipeline (User-Based CollabFiltering) algorithm";
+	public static final String FAST_PATH_NAIVE_BAYES	= "Light-user fast path (Naive Bayes) algorithm";
+	public static final String FAST_PATH_KNN			= "Light-user fast path (KNN) algorithm";
+	public static final String FAST_PATH_USER_BASED	= "Light-user fast path (User-Based CollabFiltering) algorithm";
 	
 	// Dataset
 	public static final String TRAIN_DATASET 			= "train";
 	public static final String TEST_VISIBLE_DATASET		= "test_visible";
 	public static final String TEST_HIDDEN_DATASET		= "test_hidden";	
+	
+	// Name of the content files of the songs (tracks, tags and lyrics)
+	public static final String CONTENT_DATASET			= "msd_content";
 }
@@ -45,9 +45,10 @@ public class DataSet
 	
 	private void calculateDatasetSize()
 	{
-		mDataSetSize = 0;
+		int dataSetSize = 0;
 		for (Map.Entry<String, Map<String, Integer>> entry : mUserListeningHistory.entrySet())
-			mDataSetSize += entry.getValue().size();
+			dataSetSize += entry.getValue().size();
+		mDataSetSize = dataSetSize;
 		
 		LOG.info("Dataset Size: " + mDataSetSize);
 	}
@@ -102,11 +103,12 @@ public class DataSet
 	
 	/**
 	 * Method to get overall N popular songs in the data set. We define popularity
-	 * by the number if unique listeners of this song.
+	 * by the number if unique listeners of this song. Synchronized, as algorithms running on
+	 * multiple threads may share the same dataset.
 	 * @param N		Number of popular songs
 	 * @return		N most popular songs
 	 */
-	public List<Song> getOverallNPopularSongs(int N)
+	public synchronized List<Song> getOverallNPopularSongs(int N)
 	{
 		if(overallNPopularSongs != null && !overallNPopularSongs.isEmpty()) {
 			return overallNPopularSongs;
@@ -136,11 +138,12 @@ public class DataSet
 		 * Ensure that the most frequent songs are stored in the decreasing order of their popularity.
 		 */
 		List<SongFrequency> topNReversedSongs = Lists.reverse(Lists.newArrayList(topSongs));
-		overallNPopularSongs = Lists.newArrayList();
+		List<Song> popularSongs = Lists.newArrayList();
 		for(SongFrequency songFreq : topNReversedSongs) {
-			overallNPopularSongs.add(mSongMap.get(songFreq.songId));
+			popularSongs.add(mSongMap.get(songFreq.songId));
 		}
 		
+		overallNPopularSongs = popularSongs;
 		return overallNPopularSongs;
 	}
 	
@@ -0,0 +1,139 @@
+package utils;
+
+import java.util.Map;
+
+import models.DataSet;
+import models.Song;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Counts the common listeners of a song with every song it has been listened together with, in the
+ * train dataset.
+ *
+ * Songs are identified by their index, and the songs of every train user are kept as arrays of
+ * indices. Instead of intersecting the listeners of every pair of songs, the common listeners of a
+ * song are counted by walking the songs of each of its listeners, so that pairs of songs which are
+ * never listened together are never touched. The counts are only valid until the next song is
+ * counted, and the counter is not thread-safe.
+ *
+ * @author excelsior
+ *
+ */
+public class CoListeningCounter
+{
+	private String[] songIds;
+	private Map<String, Integer> songIndexMap;
+	private int[] songListeners;
+	private Map<String, int[]> userSongsMap;
+	private Map<String, Song> songMap;
+	
+	// Common listeners of the last counted song with every other song, only the touched ones are non-zero
+	private int[] jointCounts;
+	private int[] touchedSongs;
+	private int numTouchedSongs = 0;
+	
+	public CoListeningCounter(DataSet trainDataset)
+	{
+		songMap = trainDataset.getSongMap();
+		int numSongs = songMap.size();
+		songIds = songMap.keySet().toArray(new String[numSongs]);
+		songIndexMap = Maps.newHashMapWithExpectedSize(numSongs);
+		songListeners = new int[numSongs];
+		for(int i = 0; i < numSongs; i++) {
+			songIndexMap.put(songIds[i], i);
+			songListeners[i] = songMap.get(songIds[i]).getListenersList().size();
+		}
+		
+		Map<String, Map<String, Integer>> listeningHistory = trainDataset.getUserListeningHistory();
+		userSongsMap = Maps.newHashMapWithExpectedSize(listeningHistory.size());
+		for(Map.Entry<String, Map<String, Integer>> entry : listeningHistory.entrySet()) {
+			int[] userSongs = new int[entry.getValue().size()];
+			int numUserSongs = 0;
+			for(String song : entry.getValue().keySet()) {
+				userSongs[numUserSongs++] = songIndexMap.get(song);
+			}
+			userSongsMap.put(entry.getKey(), userSongs);
+		}
+		
+		jointCounts = new int[numSongs];
+		touchedSongs = new int[numSongs];
+	}
+	
+	public int getNumSongs()
+	{
+		return songIds.length;
+	}
+	
+	/**
+	 * Song ID of every song index.
+	 */
+	public String[] getSongIds()
+	{
+		return songIds;
+	}
+	
+	public Map<String, Integer> getSongIndexMap()
+	{
+		return songIndexMap;
+	}
+	
+	public int getNumListeners(int song)
+	{
+		return songListeners[song];
+	}
+	
+	/**
+	 * Songs listened by every train user, with songs replaced by their indices.
+	 */
+	public Map<String, int[]> getUserSongsMap()
+	{
+		return userSongsMap;
+	}
+	
+	/**
+	 * Counts the common listeners of the song with every song listened by its listeners, clearing the
+	 * counts of the previous song.
+	 *
+	 * @param song			Index of the song
+	 * @param countSelf		Whether the song itself is counted, with its number of listeners
+	 * @return	Number of touched songs, see {@link #getTouchedSongs()}
+	 */
+	public int count(int song, boolean countSelf)
+	{
+		for(int i = 0; i < numTouchedSongs; i++) {
+			jointCounts[touchedSongs[i]] = 0;
+		}
+		numTouchedSongs = 0;
+		
+		for(String listener : songMap.get(songIds[song]).getListenersList()) {
+			for(int otherSong : userSongsMap.get(listener)) {
+				if(otherSong == song && !countSelf) {
+					continue;
+				}
+				if(jointCounts[otherSong] == 0) {
+					touchedSongs[numTouchedSongs++] = otherSong;
+				}
+				++jointCounts[otherSong];
+			}
+		}
+		return numTouchedSongs;
+	}
+	
+	/**
+	 * Songs touched by the last counted song, in the first {@link #count(int, boolean)} positions.
+	 * The array is reused for the next song and must not be modified.
+	 */
+	public int[] getTouchedSongs()
+	{
+		return touchedSongs;
+	}
+	
+	/**
+	 * Number of common listeners of the last counted song with the other song.
+	 */
+	public int getJointCount(int otherSong)
+	{
+		return jointCounts[otherSong];
+	}
+}
@@ -0,0 +1,50 @@
+package utils;
+
+/**
+ * Point in time after which an algorithm should stop refining the recommendations of a user and
+ * return the best ones found so far. A deadline built from a budget of zero never expires.
+ * 
+ * @author excelsior
+ *
+ */
+public class Deadline
+{
+	public static final Deadline NONE = new Deadline(0, 0);
+	
+	private long startNanos;
+	private long budgetNanos;
+	
+	private Deadline(long startNanos, long budgetNanos)
+	{
+		this.startNanos = startNanos;
+		this.budgetNanos = budgetNanos;
+	}
+	
+	/**
+	 * Deadline expiring after the given budget from now, or never if the budget is not positive.
+	 */
+	public static Deadline after(long budgetMicros)
+	{
+		if(budgetMicros <= 0) {
+			return NONE;
+		}
+		return new Deadline(System.nanoTime(), budgetMicros*1000);
+	}
+	
+	/**
+	 * Earlier deadline expiring after the given fraction of this deadline's budget.
+	 */
+	public Deadline fraction(double budgetFraction)
+	{
+		if(this == NONE) {
+			return NONE;
+		}
+		return new Deadline(startNanos, (long)(budgetNanos*budgetFraction));
+	}
+	
+	public boolean isExpired()
+	{
+		// Differences of System.nanoTime() are immune to its overflow, unlike the values themselves
+		return budgetNanos > 0 && System.nanoTime() - startNanos >= budgetNanos;
+	}
+}
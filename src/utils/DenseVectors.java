@@ -0,0 +1,34 @@
+package utils;
+
+/**
+ * Kernels over dense primitive vectors.
+ * 
+ * The loops are unrolled with independent accumulators and have no branches, so that the JIT
+ * compiler can turn them into SIMD instructions.
+ * 
+ * @author excelsior
+ *
+ */
+public class DenseVectors
+{
+	/**
+	 * Dot product of the first length elements of two vectors.
+	 */
+	public static long dotProduct(int[] a, int[] b, int length)
+	{
+		long sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+		int i = 0;
+		for(; i + 3 < length; i += 4) {
+			sum0 += (long)a[i]*b[i];
+			sum1 += (long)a[i+1]*b[i+1];
+			sum2 += (long)a[i+2]*b[i+2];
+			sum3 += (long)a[i+3]*b[i+3];
+		}
+		for(; i < length; i++) {
+			sum0 += (long)a[i]*b[i];
+		}
+		
+		return sum0 + sum1 + sum2 + sum3;
+	}
+
+}
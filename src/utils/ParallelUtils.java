@@ -0,0 +1,100 @@
+package utils;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Utility functions to split the work of an algorithm over multiple threads.
+ *
+ * @author excelsior
+ *
+ */
+public class ParallelUtils
+{
+	/**
+	 * Work done on a range [start, end) of rows, e.g. of users or songs.
+	 */
+	public interface RangeTask
+	{
+		public void run(int start, int end);
+	}
+	
+	/**
+	 * Runs a task on all the rows [0, numRows), split into chunks of rows which are run on a bounded
+	 * thread pool. Returns once all the chunks are done.
+	 *
+	 * @param numRows		Number of rows
+	 * @param chunkSize		Number of rows per chunk, small enough to balance the load of the threads
+	 * @param numThreads	Maximum number of threads
+	 * @param task			Task run on every chunk, concurrently with the other chunks
+	 */
+	public static void runInChunks(int numRows, int chunkSize, int numThreads, final RangeTask task)
+	{
+		List<Callable<Void>> chunkTasks = Lists.newArrayList();
+		for(int chunkStart = 0; chunkStart < numRows; chunkStart += chunkSize) {
+			final int start = chunkStart;
+			final int end = Math.min(chunkStart + chunkSize, numRows);
+			chunkTasks.add(new Callable<Void>() {
+				public Void call()
+				{
+					task.run(start, end);
+					return null;
+				}
+			});
+		}
+		
+		runConcurrently(chunkTasks, numThreads);
+	}
+	
+	/**
+	 * Runs the tasks on a bounded thread pool and returns their results, in the order of the tasks.
+	 */
+	public static <T> List<T> runConcurrently(List<Callable<T>> tasks, int numThreads)
+	{
+		if(tasks.isEmpty()) {
+			return Lists.newArrayList();
+		}
+		
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(numThreads, tasks.size())));
+		try {
+			return runConcurrently(executor, tasks);
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Runs the tasks on a thread pool owned by the caller, e.g. reused across the epochs of a
+	 * training, and returns their results in the order of the tasks. The pool is not shut down.
+	 */
+	public static <T> List<T> runConcurrently(ExecutorService executor, List<Callable<T>> tasks)
+	{
+		List<T> results = Lists.newArrayList();
+		try {
+			List<Future<T>> futures = Lists.newArrayList();
+			for(Callable<T> task : tasks) {
+				futures.add(executor.submit(task));
+			}
+			
+			for(Future<T> future : futures) {
+				results.add(future.get());
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while running parallel tasks", e);
+		}
+		catch (ExecutionException e) {
+			throw new RuntimeException("Failed to run parallel tasks", e.getCause());
+		}
+		
+		return results;
+	}
+}
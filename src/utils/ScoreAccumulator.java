@@ -0,0 +1,115 @@
+package utils;
+
+import java.util.PriorityQueue;
+
+import models.SongScore;
+
+/**
+ * Dense score array used to sum up the scores of songs identified by their index, when only a few
+ * of them get a score for any single user.
+ * 
+ * The songs which have been touched are remembered, so that picking the top N songs and resetting
+ * the array for the next user only cost as much as the number of touched songs, instead of the
+ * total number of songs. The accumulator is not thread-safe, every scoring thread should use its
+ * own instance.
+ * 
+ * @author excelsior
+ *
+ */
+public class ScoreAccumulator
+{
+	private double[] scores;
+	private boolean[] isTouched;
+	private boolean[] isExcluded;
+	private int[] touchedSongs;
+	private int numTouchedSongs = 0;
+	
+	public ScoreAccumulator(int numSongs)
+	{
+		scores = new double[numSongs];
+		isTouched = new boolean[numSongs];
+		isExcluded = new boolean[numSongs];
+		touchedSongs = new int[numSongs];
+	}
+	
+	/**
+	 * Adds a score to the song.
+	 */
+	public void add(int song, double score)
+	{
+		if(!isTouched[song]) {
+			isTouched[song] = true;
+			touchedSongs[numTouchedSongs++] = song;
+		}
+		scores[song] += score;
+	}
+	
+	/**
+	 * Excludes a song from the top N songs, e.g. because the user has already listened to it.
+	 */
+	public void exclude(int song)
+	{
+		if(!isTouched[song]) {
+			isTouched[song] = true;
+			touchedSongs[numTouchedSongs++] = song;
+		}
+		isExcluded[song] = true;
+	}
+	
+	public double getScore(int song)
+	{
+		return scores[song];
+	}
+	
+	public int getNumTouchedSongs()
+	{
+		return numTouchedSongs;
+	}
+	
+	/**
+	 * Gets the i-th touched song, in the order they were first touched.
+	 */
+	public int getTouchedSong(int i)
+	{
+		return touchedSongs[i];
+	}
+	
+	public boolean isExcluded(int song)
+	{
+		return isExcluded[song];
+	}
+	
+	/**
+	 * Gets the top N scored songs among the touched songs which have not been excluded.
+	 * 
+	 * @param numSongsToRecommend
+	 * @param songIds		Song ID of every song index
+	 * @return
+	 */
+	public PriorityQueue<SongScore> getTopNSongScores(int numSongsToRecommend, String[] songIds)
+	{
+		PriorityQueue<SongScore> topNSongScores = new PriorityQueue<SongScore>(numSongsToRecommend);
+		for(int i = 0; i < numTouchedSongs; i++) {
+			int song = touchedSongs[i];
+			if(!isExcluded[song]) {
+				AlgoUtils.updateTopNSongs(numSongsToRecommend, topNSongScores, songIds[song], scores[song]);
+			}
+		}
+		
+		return topNSongScores;
+	}
+	
+	/**
+	 * Clears the touched songs, so that the accumulator can be reused for the next user.
+	 */
+	public void reset()
+	{
+		for(int i = 0; i < numTouchedSongs; i++) {
+			int song = touchedSongs[i];
+			scores[song] = 0.0;
+			isTouched[song] = false;
+			isExcluded[song] = false;
+		}
+		numTouchedSongs = 0;
+	}
+}
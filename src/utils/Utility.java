@@ -1,9 +1,7 @@
 package utils;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import models.Constants;
@@ -11,13 +9,15 @@ import models.DataSet;
 import models.Song;
 import org.apache.log4j.Logger;
 import algos.Algorithm;
+import algos.BPR;
+import algos.ContentBased;
+import algos.ImplicitALS;
 import algos.ItemBasedCollaborativeFiltering;
 import algos.KNN;
 import algos.NaiveBayes;
+import algos.P3Alpha;
 import algos.TopNPopularSongs;
 import algos.UserBasedCollaborativeFiltering;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 
 /**
  * Class with basic utility methods.
@@ -68,6 +68,44 @@ public class Utility {
 		return (overallAccuracy * 100) / (double) numUsers;
 	}
 	
+	/**
+	 * Method to get how much the recommendations of an approximate algorithm overlap the
+	 * recommendations of the exact one, on average over the users.
+	 * 
+	 * @param exactRecommendations		Map of UserID to the List of exactly recommended songs
+	 * @param approxRecommendations		Map of UserID to the List of approximately recommended songs
+	 * @return Overlap of the recommendations, in percentage of the exact ones
+	 */
+	public static Double getTopNOverlap(Map<String, List<Song>> exactRecommendations, 
+			Map<String, List<Song>> approxRecommendations)
+	{
+		double overallOverlap = 0.0;
+		for (Map.Entry<String, List<Song>> perUserEntry : exactRecommendations.entrySet()) 
+		{
+			overallOverlap += getTopNOverlap(perUserEntry.getValue(), approxRecommendations.get(perUserEntry.getKey()));
+		}
+		
+		int numUsers = exactRecommendations.keySet().size();
+		return (overallOverlap * 100) / (double) numUsers;
+	}
+	
+	/**
+	 * Fraction of the exactly recommended songs of a user which are also recommended approximately.
+	 */
+	public static double getTopNOverlap(List<Song> exactSongs, List<Song> approxSongs)
+	{
+		if (exactSongs.isEmpty())
+			return 1.0;
+		
+		int matchedSongs = 0;
+		for (Song s : exactSongs)
+		{
+			if (approxSongs != null && approxSongs.contains(s))
+				++matchedSongs;
+		}
+		return matchedSongs / (double) exactSongs.size();
+	}
+	
 	public static Algorithm getAlgorithmInstance(String algoName, int numSongsToRecommend)
 	{
 		Algorithm algo = null;
@@ -87,6 +125,18 @@ public class Utility {
 		if(algoName.endsWith(Constants.USER_BASED_COLLABORATIVE_FILTERING))	
 			return new UserBasedCollaborativeFiltering(numSongsToRecommend);
 		
+		if(algoName.endsWith(Constants.IMPLICIT_ALS))	
+			return new ImplicitALS(numSongsToRecommend);
+		
+		if(algoName.endsWith(Constants.BPR))	
+			return new BPR(numSongsToRecommend);
+		
+		if(algoName.endsWith(Constants.P3_ALPHA))	
+			return new P3Alpha(numSongsToRecommend);
+		
+		if(algoName.endsWith(Constants.CONTENT_BASED))	
+			return new ContentBased(numSongsToRecommend);
+		
 		return algo;
 	}
 	
@@ -113,75 +163,6 @@ public class Utility {
 		return Utility.getAccuracy(recommendations, testHiddenDataset);
 	}
 	
-	/**
-	 * Method to get a dataset randomly drawn with replacement.
-	 * 
-	 * @param dataset	Base dataset
-	 * @return			Randomly drawn dataset
-	 */
-	public static DataSet getDatasetDrawnWithReplacement(DataSet dataset)
-	{
-		Map<String, Map<String, Integer>> userListeningHistory = dataset.getUserListeningHistory();
-
-		int datasetSize = dataset.getDataSetSize();
-		List<String> usersList = dataset.getListOfUsers();
-		int numUsers = usersList.size();
-		
-		Map<String, List<String>> userSongsListMap = new HashMap<String, List<String>>();
-		Map<String, Map<String, Integer>> trainListeningHistory = Maps.newHashMap();
-		
-		// Iterate datasetSize number of times.
-		for (int i = 0; i < datasetSize; i++)
-		{
-			int randomVal = (int)(Math.random() * datasetSize);
-//			LOG.info("Bagging :: Utility :: getDatasetDrawnWithReplacement :: randomVal = " + randomVal);
-			
-			// Pick a User
-			String pickedUser = usersList.get(randomVal % numUsers);
-			
-			// Get a list of the songs this user listened to
-			List<String> userSongsList = null;
-			Map<String, Integer> userListeningHistoryListMap = userListeningHistory.get(pickedUser);
-			if(userSongsListMap.containsKey(pickedUser))
-				userSongsList = userSongsListMap.get(pickedUser);
-			else
-			{
-				userSongsList = Lists.newArrayList(userListeningHistoryListMap.keySet());
-				userSongsListMap.put(pickedUser, userSongsList);
-			}
-
-//			LOG.info("Bagging :: Utility :: getDatasetDrawnWithReplacement :: pickedUser = " + pickedUser);
-					
-			// Now, pick a songID from this list
-			String pickedSongID = userSongsList.get(randomVal % userSongsList.size());
-			
-			// Find its play count
-			int pickedSongPlayCount = userListeningHistoryListMap.get(pickedSongID);
-			
-			// Push this data to trainListeningHistory
-			if(trainListeningHistory.containsKey(pickedUser))
-			{
-				Map<String, Integer> songsPlayCountMap = trainListeningHistory.get(pickedUser);
-				if(!songsPlayCountMap.containsKey(pickedSongID))
-					songsPlayCountMap.put(pickedSongID, pickedSongPlayCount);
-//				LOG.info("Bagging :: Utility :: getDatasetDrawnWithReplacement :: trainListeningHistory UPDATED");
-			}
-			else
-			{
-				Map<String, Integer> songsPlayCountMap = new HashMap<String, Integer>();
-				songsPlayCountMap.put(pickedSongID, pickedSongPlayCount);
-				trainListeningHistory.put(pickedUser,songsPlayCountMap);
-//				LOG.info("Bagging :: Utility :: getDatasetDrawnWithReplacement :: trainListeningHistory CREATED");
-			}
-		}
-		
-		DataSet newDataset = new DataSet(trainListeningHistory, getSongMapForListeningHistory(trainListeningHistory));
-//		LOG.info("Bagging :: Utility :: getDatasetDrawnWithReplacement :: trainListeningHistory.size = " + trainListeningHistory.size());
-//		LOG.info("Bagging :: Utility :: getDatasetDrawnWithReplacement :: DATASET_SIZE = " + newDataset.getDataSetSize());
-		
-		return  newDataset;
-	}
-	
 	public static Map<String, Song> getSongMapForListeningHistory(Map<String, Map<String, Integer>> userListeningHistory)
 	{
 		Map<String, Song> songMap = new HashMap<String, Song>();
@@ -211,44 +192,4 @@ public class Utility {
 		
 		return songMap;
 	}
-
-	public static List<String> sortHashMapByValues(Map<String, Integer> songCountMap, int numSongsToRecommend)
-	{
-		List<String> mapKeys = new ArrayList<String>(songCountMap.keySet());
-		List<Integer> mapValues = new ArrayList<Integer>(songCountMap.values());
-		
-		// Sort values in descending order
-		Collections.sort(mapValues);
-		Collections.reverse(mapValues);
-		
-		Collections.sort(mapKeys);
-
-		List<String> sortedList = new ArrayList<String>();
-
-		Iterator<Integer> valueIt = mapValues.iterator();
-		while (valueIt.hasNext() && sortedList.size() < numSongsToRecommend)
-		{
-			Integer val = valueIt.next();
-			Iterator<String> keyIt = mapKeys.iterator();
-
-			// Finding this value in the keys
-			while (keyIt.hasNext())
-			{
-				String key = keyIt.next();
-				String comp1 = songCountMap.get(key).toString();
-				String comp2 = val.toString();
-
-				if (comp1.equals(comp2))
-				{
-					songCountMap.remove(key);
-					mapKeys.remove(key);
-
-					sortedList.add(key);
-					break;
-				}
-
-			}
-		}
-		return sortedList;
-	}
 }
@@ -0,0 +1,190 @@
+package utils.data;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+
+import models.SongDetail;
+import models.Track;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Reads the content of the songs, i.e. the tags and lyrics of their tracks, from filesystem. For a
+ * content name, the files read from the data folder are :
+ *
+ * <name>_tracks.txt : the tracks of every song, as in the unique_tracks.txt file of the MSD, one
+ * 		"trackID<SEP>songID<SEP>artist<SEP>title" per line.
+ * <name>_tags.txt : the Last.fm tags of the tracks, one "trackID<TAB>tag<TAB>tag..." per line.
+ * <name>_lyrics.txt : the bag-of-words of the lyrics of the tracks, in the musiXmatch format : lines
+ * 		starting with '#' are comments, the line starting with '%' lists the words, and every other
+ * 		line is "trackID,mxmID,wordIndex:count,..." with word indexes starting at 1.
+ *
+ * The tags and lyrics files are optional, the songs then only get the content which was found.
+ *
+ * @author excelsior
+ *
+ */
+public class ContentReader
+{
+	private static Logger LOG = Logger.getLogger(ContentReader.class);
+	
+	private static final String TRACKS_SEPARATOR = "<SEP>";
+	
+	private String mContentName;
+	
+	public ContentReader(String contentName)
+	{
+		this.mContentName = contentName;
+	}
+	
+	/**
+	 * Reads the tracks along with their tags. Tracks without any tag get an empty list of tags.
+	 *
+	 * @return	Map of every track ID to its track
+	 */
+	public Map<String, Track> createTracks()
+	{
+		Map<String, Track> trackMap = Maps.newHashMap();
+		Scanner scanner = openContentFile("tracks");
+		if(scanner != null) {
+			while(scanner.hasNext()) {
+				String line = scanner.next().trim();
+				if(line.isEmpty()) {
+					continue;
+				}
+				String trackId = line.split(TRACKS_SEPARATOR)[0];
+				getTrack(trackMap, trackId);
+			}
+			scanner.close();
+		}
+		
+		scanner = openContentFile("tags");
+		if(scanner != null) {
+			while(scanner.hasNext()) {
+				String line = scanner.next().trim();
+				if(line.isEmpty()) {
+					continue;
+				}
+				String columns[] = line.split("\t");
+				Track track = getTrack(trackMap, columns[0]);
+				for(int i = 1; i < columns.length; i++) {
+					String tag = columns[i].trim().toLowerCase();
+					if(!tag.isEmpty()) {
+						track.mTagNames.add(tag);
+					}
+				}
+			}
+			scanner.close();
+		}
+		
+		return trackMap;
+	}
+	
+	/**
+	 * Reads the songs along with their tracks, and sums up the word counts of the lyrics of all the
+	 * tracks of every song.
+	 *
+	 * @return	Map of every song ID to its details
+	 */
+	public Map<String, SongDetail> createSongDetails()
+	{
+		Map<String, SongDetail> songDetailMap = Maps.newHashMap();
+		Map<String, SongDetail> trackSongMap = Maps.newHashMap();
+		Scanner scanner = openContentFile("tracks");
+		if(scanner == null) {
+			return songDetailMap;
+		}
+		while(scanner.hasNext()) {
+			String line = scanner.next().trim();
+			if(line.isEmpty()) {
+				continue;
+			}
+			String columns[] = line.split(TRACKS_SEPARATOR);
+			String trackId = columns[0];
+			String songId = columns[1];
+			
+			SongDetail songDetail = songDetailMap.get(songId);
+			if(songDetail == null) {
+				songDetail = new SongDetail();
+				songDetail.setSongID(songId);
+				songDetail.mTrackIDList = Lists.newArrayList();
+				songDetail.mLyricsMap = Maps.newHashMap();
+				songDetailMap.put(songId, songDetail);
+			}
+			songDetail.mTrackIDList.add(trackId);
+			trackSongMap.put(trackId, songDetail);
+		}
+		scanner.close();
+		
+		scanner = openContentFile("lyrics");
+		if(scanner != null) {
+			List<String> words = Lists.newArrayList();
+			while(scanner.hasNext()) {
+				String line = scanner.next().trim();
+				if(line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				if(line.startsWith("%")) {
+					for(String word : line.substring(1).split(",")) {
+						words.add(word);
+					}
+					continue;
+				}
+				
+				String columns[] = line.split(",");
+				SongDetail songDetail = trackSongMap.get(columns[0]);
+				if(songDetail == null) {
+					continue;
+				}
+				for(int i = 2; i < columns.length; i++) {
+					int separator = columns[i].indexOf(':');
+					String word = words.get(Integer.parseInt(columns[i].substring(0, separator)) - 1);
+					int count = Integer.parseInt(columns[i].substring(separator + 1));
+					
+					Integer songCount = songDetail.mLyricsMap.get(word);
+					songDetail.mLyricsMap.put(word, (songCount == null) ? count : songCount + count);
+				}
+			}
+			scanner.close();
+		}
+		
+		return songDetailMap;
+	}
+	
+	private static Track getTrack(Map<String, Track> trackMap, String trackId)
+	{
+		Track track = trackMap.get(trackId);
+		if(track == null) {
+			track = new Track();
+			track.mTrackID = trackId;
+			track.mTagNames = Lists.newArrayList();
+			trackMap.put(trackId, track);
+		}
+		return track;
+	}
+	
+	/**
+	 * Opens a content file, split in lines.
+	 *
+	 * @return	Scanner over the lines of the file, or null if the file does not exist
+	 */
+	private Scanner openContentFile(String contentType)
+	{
+		String filePath = System.getProperty("user.dir") + "/data/" + mContentName + "_" + contentType + ".txt";
+		try {
+			Scanner scanner = new Scanner(new File(filePath), "UTF-8");
+			scanner.useDelimiter("\n");
+			return scanner;
+		}
+		catch (FileNotFoundException e) {
+			LOG.warn("No " + contentType + " file found at " + filePath);
+			return null;
+		}
+	}
+}